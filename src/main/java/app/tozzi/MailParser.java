@@ -1,9 +1,16 @@
 package app.tozzi;
 
+import app.tozzi.core.AttachmentStore;
+import app.tozzi.core.CancellationToken;
 import app.tozzi.core.DeliveryStatusHandler;
 import app.tozzi.core.PECHandler;
+import app.tozzi.core.ParseHandler;
+import app.tozzi.core.ParserContext;
+import app.tozzi.core.ResourceGuard;
 import app.tozzi.model.*;
 import app.tozzi.model.exception.MailParserException;
+import app.tozzi.model.exception.ParseCancelledException;
+import app.tozzi.model.exception.ResourceLimitExceededException;
 import app.tozzi.util.*;
 import jakarta.activation.DataSource;
 import jakarta.mail.Multipart;
@@ -11,15 +18,39 @@ import jakarta.mail.Part;
 import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.internet.MimePart;
+import jakarta.mail.internet.MimePartDataSource;
+import jakarta.mail.util.SharedByteArrayInputStream;
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
+import lombok.RequiredArgsConstructor;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -31,8 +62,27 @@ import java.util.stream.StreamSupport;
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class MailParser {
 
+    private static final int MAX_CONTEXTS_PER_THREAD = 8;
+
+    /**
+     * Parsing contexts of the current thread are shared by every instance, since {@link #getInstance()} and its overloads create a new instance on every call
+     */
+    private static final ThreadLocal<ParserContext> DEFAULT_CONTEXTS = ThreadLocal.withInitial(() -> new ParserContext(null));
+
+    /**
+     * Contexts of the instances with custom properties, keyed by a snapshot of the properties. The least recently used are dropped beyond {@value #MAX_CONTEXTS_PER_THREAD}
+     */
+    private static final ThreadLocal<Map<Map<String, String>, ParserContext>> CONTEXTS = ThreadLocal.withInitial(() -> new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Map<String, String>, ParserContext> eldest) {
+            return size() > MAX_CONTEXTS_PER_THREAD;
+        }
+    });
+
     private Properties properties;
     private boolean extractAllHeaders;
+    private ParseOptions options;
+    private final AtomicReference<Map<String, String>> contextKey = new AtomicReference<>();
 
     /**
      * Default {@link MailParser} instance.
@@ -44,7 +94,7 @@ public class MailParser {
      * @return {@link MailParser} instance
      */
     public static MailParser getInstance() {
-        return new MailParser(null, false);
+        return new MailParser(null, false, ParseOptions.defaults());
     }
 
     /**
@@ -56,7 +106,7 @@ public class MailParser {
      * @return {@link MailParser} instance
      */
     public static MailParser getInstance(Properties properties) {
-        return new MailParser(properties, false);
+        return new MailParser(properties, false, ParseOptions.defaults());
     }
 
     /**
@@ -65,7 +115,7 @@ public class MailParser {
      * @return {@link MailParser} instance
      */
     public static MailParser getInstance(boolean extractAllHeaders) {
-        return new MailParser(null, extractAllHeaders);
+        return new MailParser(null, extractAllHeaders, ParseOptions.defaults());
     }
 
     /**
@@ -74,7 +124,27 @@ public class MailParser {
      * @return {@link MailParser} instance
      */
     public static MailParser getInstance(Properties properties, boolean extractAllHeaders) {
-        return new MailParser(properties, extractAllHeaders);
+        return new MailParser(properties, extractAllHeaders, ParseOptions.defaults());
+    }
+
+    /**
+     * {@link MailParser} instance with a selective extraction profile
+     *
+     * @param options {@link ParseOptions}
+     * @return {@link MailParser} instance
+     */
+    public static MailParser getInstance(ParseOptions options) {
+        return new MailParser(null, false, options != null ? options : ParseOptions.defaults());
+    }
+
+    /**
+     * {@link MailParser} instance with custom properties, the extraction of all the headers and a selective extraction profile
+     *
+     * @param options {@link ParseOptions}
+     * @return {@link MailParser} instance
+     */
+    public static MailParser getInstance(Properties properties, boolean extractAllHeaders, ParseOptions options) {
+        return new MailParser(properties, extractAllHeaders, options != null ? options : ParseOptions.defaults());
     }
 
     /**
@@ -90,13 +160,35 @@ public class MailParser {
      * @return {@link ParsedEntity}
      */
     public ParsedEntity parse(MimeMessage mimeMessage) {
+        return parse(mimeMessage, CancellationToken.create());
+    }
+
+    /**
+     * Extracts a {@link ParsedEntity} from a mail MIME message, stopping with {@link app.tozzi.model.exception.ParseCancelledException} when token is cancelled or expired.<br>
+     * With the lazy option the token also applies to the deferred extraction.
+     *
+     * @param mimeMessage {@link MimeMessage} mail MIME message
+     * @param token       {@link CancellationToken}
+     * @return {@link ParsedEntity}
+     */
+    public ParsedEntity parse(MimeMessage mimeMessage, CancellationToken token) {
 
+        if (token == null) {
+            throw new MailParserException("Invalid token");
+        }
+
+        token.throwIfCancelled();
         var xTranspHeader = MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_TRASPORTO);
         var xReceiptHeader = MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_RICEVUTA);
-        var parsedEntity = extract(mimeMessage, xTranspHeader != null, xReceiptHeader != null, this.properties, this.extractAllHeaders);
+
+        if (this.options.isLazy()) {
+            return extractLazy(mimeMessage, xTranspHeader != null, xReceiptHeader != null, this::context, this.extractAllHeaders, this.options, token);
+        }
+
+        var parsedEntity = extract(mimeMessage, xTranspHeader != null, xReceiptHeader != null, context(), new ResourceGuard(this.options.getBudget(), token), this.extractAllHeaders, this.options);
 
         if (xReceiptHeader != null) {
-            return PECHandler.loadReceipt((PEC) parsedEntity);
+            return loadReceipt((PEC) parsedEntity, context(), token, this.options);
         }
 
         return parsedEntity;
@@ -120,8 +212,37 @@ public class MailParser {
             throw new MailParserException("Invalid file");
         }
 
-        try (InputStream is = new FileInputStream(eml)) {
-            return parse(is);
+        return parse(eml.toPath());
+    }
+
+    /**
+     * Extracts a {@link ParsedEntity} from a mail message.<br>
+     * The file is memory-mapped: MIME parts are slices of the mapped region instead of heap copies.<br>
+     * ParsedEntity can be:
+     * <ul>
+     * <li>{@link Mail}: simple mail</li>
+     * <li>{@link PEC}: Posta Elettronica Certificata - Italian certified electronic mail </li>
+     * <li>{@link PECReceipt}: Italian certified electronic mail receipt</li>
+     * </ul>
+     *
+     * @param eml {@link Path} mail eml MIME message
+     * @return {@link ParsedEntity}
+     */
+    public ParsedEntity parse(Path eml) {
+
+        if (eml == null || !Files.exists(eml)) {
+            throw new MailParserException("Invalid file");
+        }
+
+        try (var channel = FileChannel.open(eml, StandardOpenOption.READ)) {
+
+            if (channel.size() > Integer.MAX_VALUE) {
+                try (InputStream is = Channels.newInputStream(channel)) {
+                    return parse(is);
+                }
+            }
+
+            return parse(new SharedByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
 
         } catch (IOException e) {
             throw new MailParserException("Error during parsing", e);
@@ -141,15 +262,331 @@ public class MailParser {
      * @return {@link ParsedEntity}
      */
     public ParsedEntity parse(InputStream eml) {
-        return parse(MimeMessageUtils.createMimeMessage(eml, properties));
+        return parse(MimeMessageUtils.createMimeMessage(eml, context().getSession()));
     }
 
-    private static ParsedEntity extract(MimeMessage mimeMessage, boolean isPEC, boolean isPECReceipt, Properties properties, boolean extractAllHeaders) {
+    /**
+     * Extracts a {@link ParsedEntity} from a mail message, stopping when token is cancelled or expired
+     *
+     * @param eml   {@link InputStream} eml mail mime message
+     * @param token {@link CancellationToken}
+     * @return {@link ParsedEntity}
+     * @see #parse(MimeMessage, CancellationToken)
+     */
+    public ParsedEntity parse(InputStream eml, CancellationToken token) {
+        return parse(MimeMessageUtils.createMimeMessage(eml, context().getSession()), token);
+    }
+
+    /**
+     * Extracts a {@link ParsedEntity} from a mail MIME message, pushing bodies, attachments and certificate data to handler as they are encountered.<br>
+     * Bodies and attachments are not collected into the returned entity, but the source of mimeMessage is still held as it is
+     * (in memory for a message read from a stream: see {@link #parse(InputStream, ParseHandler)}).
+     * Uuencoded attachments inside text bodies are not reported to handler. The lazy option is ignored.
+     *
+     * @param mimeMessage {@link MimeMessage} mail MIME message
+     * @param handler     {@link ParseHandler}
+     * @return {@link ParsedEntity} with headers, addresses and certificate data
+     */
+    public ParsedEntity parse(MimeMessage mimeMessage, ParseHandler handler) {
+        return parse(mimeMessage, handler, CancellationToken.create());
+    }
 
+    /**
+     * Extracts a {@link ParsedEntity} from a mail MIME message, pushing bodies, attachments and certificate data to handler as they are encountered
+     * and stopping with {@link app.tozzi.model.exception.ParseCancelledException} when token is cancelled or expired
+     *
+     * @param mimeMessage {@link MimeMessage} mail MIME message
+     * @param handler     {@link ParseHandler}
+     * @param token       {@link CancellationToken}
+     * @return {@link ParsedEntity} with headers, addresses and certificate data
+     * @see #parse(MimeMessage, ParseHandler)
+     */
+    public ParsedEntity parse(MimeMessage mimeMessage, ParseHandler handler, CancellationToken token) {
+
+        if (handler == null) {
+            throw new MailParserException("Invalid handler");
+        }
+
+        if (token == null) {
+            throw new MailParserException("Invalid token");
+        }
+
+        token.throwIfCancelled();
+        var xTranspHeader = MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_TRASPORTO);
+        var xReceiptHeader = MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_RICEVUTA);
+        var parsedEntity = extract(mimeMessage, xTranspHeader != null, xReceiptHeader != null, context(), new ResourceGuard(this.options.getBudget(), token), this.extractAllHeaders, this.options, handler);
+
+        if (xReceiptHeader != null) {
+            return loadReceipt((PEC) parsedEntity, context(), token, this.options);
+        }
+
+        return parsedEntity;
+    }
+
+    /**
+     * Extracts a {@link ParsedEntity} from a mail message, pushing bodies, attachments and certificate data to handler as they are encountered.<br>
+     * The whole message is read into memory before being walked: for messages that must not be held in memory use {@link app.tozzi.core.MailEventReader},
+     * which tokenizes the stream incrementally
+     *
+     * @param eml     {@link InputStream} eml mail mime message
+     * @param handler {@link ParseHandler}
+     * @return {@link ParsedEntity} with headers, addresses and certificate data
+     * @see #parse(MimeMessage, ParseHandler)
+     */
+    public ParsedEntity parse(InputStream eml, ParseHandler handler) {
+        return parse(MimeMessageUtils.createMimeMessage(eml, context().getSession()), handler);
+    }
+
+    /**
+     * Extracts a {@link ParsedEntity} from a mail message, pushing bodies, attachments and certificate data to handler as they are encountered
+     * and stopping when token is cancelled or expired
+     *
+     * @param eml     {@link InputStream} eml mail mime message
+     * @param handler {@link ParseHandler}
+     * @param token   {@link CancellationToken}
+     * @return {@link ParsedEntity} with headers, addresses and certificate data
+     * @see #parse(MimeMessage, ParseHandler, CancellationToken)
+     */
+    public ParsedEntity parse(InputStream eml, ParseHandler handler, CancellationToken token) {
+        return parse(MimeMessageUtils.createMimeMessage(eml, context().getSession()), handler, token);
+    }
+
+    /**
+     * Extracts a {@link ParsedEntity} from a mail message held in memory.<br>
+     * The array is not copied: MIME parts and attachments without transfer encoding are slices of it, so it must not be modified afterwards.
+     *
+     * @param eml    eml mail mime message
+     * @param offset offset of the message in the array
+     * @param length length of the message
+     * @return {@link ParsedEntity}
+     */
+    public ParsedEntity parse(byte[] eml, int offset, int length) {
+
+        if (eml == null) {
+            throw new MailParserException("Invalid buffer");
+        }
+
+        Objects.checkFromIndexSize(offset, length, eml.length);
+        return parse(new SharedByteArrayInputStream(eml, offset, length));
+    }
+
+    /**
+     * Extracts a {@link ParsedEntity} from a mail message held in memory.<br>
+     * The array is not copied, so it must not be modified afterwards.
+     *
+     * @param eml eml mail mime message
+     * @return {@link ParsedEntity}
+     */
+    public ParsedEntity parse(byte[] eml) {
+
+        if (eml == null) {
+            throw new MailParserException("Invalid buffer");
+        }
+
+        return parse(eml, 0, eml.length);
+    }
+
+    /**
+     * Extracts a {@link ParsedEntity} from the remaining bytes of a (heap or direct) {@link ByteBuffer}.<br>
+     * The buffer is not copied and its position is not modified: MIME parts and attachments without transfer encoding are slices of it, so it must not be modified afterwards.
+     *
+     * @param eml eml mail mime message
+     * @return {@link ParsedEntity}
+     */
+    public ParsedEntity parse(ByteBuffer eml) {
+
+        if (eml == null) {
+            throw new MailParserException("Invalid buffer");
+        }
+
+        if (eml.hasArray()) {
+            return parse(eml.array(), eml.arrayOffset() + eml.position(), eml.remaining());
+        }
+
+        return parse(new SharedByteBufferInputStream(eml));
+    }
+
+    /**
+     * Classifies a mail message reading only its header block.<br>
+     * The stream is read one byte at a time up to the first blank line and left positioned right after it: the caller can go on reading the body.
+     * Wrap unbuffered streams (e.g. a {@link java.io.FileInputStream}) in a {@link BufferedInputStream} the caller keeps reading from.
+     *
+     * @param eml {@link InputStream} eml mail mime message
+     * @return {@link Classification}
+     */
+    public Classification classify(InputStream eml) {
+
+        if (eml == null) {
+            throw new MailParserException("Invalid stream");
+        }
+
+        return PECHandler.classify(MimeMessageUtils.loadHeaders(new ByteArrayInputStream(MimeMessageUtils.readHeaderBlock(eml))));
+    }
+
+    /**
+     * Classifies a mail message reading only its header block
+     *
+     * @param eml {@link File} mail eml MIME message
+     * @return {@link Classification}
+     */
+    public Classification classify(File eml) {
+
+        if (eml == null || !eml.exists()) {
+            throw new MailParserException("Invalid file");
+        }
+
+        return classify(eml.toPath());
+    }
+
+    /**
+     * Classifies a mail message reading only its header block
+     *
+     * @param eml {@link Path} mail eml MIME message
+     * @return {@link Classification}
+     */
+    public Classification classify(Path eml) {
+
+        if (eml == null || !Files.exists(eml)) {
+            throw new MailParserException("Invalid file");
+        }
+
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(eml))) {
+            return classify(is);
+
+        } catch (IOException e) {
+            throw new MailParserException("Error during classification", e);
+        }
+    }
+
+    private static ParsedEntity extract(MimeMessage mimeMessage, boolean isPEC, boolean isPECReceipt, ParserContext context, ResourceGuard guard, boolean extractAllHeaders, ParseOptions options) {
+        return extract(mimeMessage, isPEC, isPECReceipt, context, guard, extractAllHeaders, options, null);
+    }
+
+    private static ParsedEntity extract(MimeMessage mimeMessage, boolean isPEC, boolean isPECReceipt, ParserContext context, ResourceGuard guard, boolean extractAllHeaders, ParseOptions options, ParseHandler handler) {
         var mail = new Mail();
+        extractHeaders(mail, mimeMessage, extractAllHeaders, options);
+
+        try {
+            if (handler == null) {
+                return extractContent(mail, mimeMessage, isPEC, isPECReceipt, context, guard, extractAllHeaders, options, null);
+            }
+
+            var streaming = new Streaming(handler, guard);
+            streaming.push(() -> handler.onHeaders(mail));
+            return extractContent(mail, mimeMessage, isPEC, isPECReceipt, context, guard, extractAllHeaders, options, streaming);
+
+        } catch (RuntimeException e) {
+            // spilled attachments of the discarded mail
+            closeQuietly(mail, e);
+            throw e;
+        }
+    }
+
+    private static void closeQuietly(ParsedEntity parsedEntity, RuntimeException cause) {
+
+        try {
+            parsedEntity.close();
+
+        } catch (RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Parsing context of the current thread. Custom properties are read at the first parse: later changes are not seen
+     */
+    private ParserContext context() {
+
+        if (this.properties == null) {
+            return DEFAULT_CONTEXTS.get();
+        }
+
+        var key = this.contextKey.updateAndGet(k -> k != null ? k : this.properties.stringPropertyNames().stream().collect(Collectors.toUnmodifiableMap(name -> name, this.properties::getProperty)));
+
+        return CONTEXTS.get().computeIfAbsent(key, k -> {
+            var properties = new Properties();
+            properties.putAll(k);
+            return new ParserContext(properties);
+        });
+    }
 
-        mail.setMessageID(MimeMessageUtils.getMessageID(mimeMessage));
+    private static ParsedEntity extractLazy(MimeMessage mimeMessage, boolean isPEC, boolean isPECReceipt, Supplier<ParserContext> contexts, boolean extractAllHeaders, ParseOptions options, CancellationToken token) {
+        var resolver = new LazyResolver();
+        var mail = new LazyMail(resolver);
+        extractHeaders(mail, mimeMessage, extractAllHeaders, options);
+
+        if (!isPEC && !isPECReceipt) {
+            resolver.bind(() -> extractContent(mail, mimeMessage, false, false, contexts.get(), new ResourceGuard(options.getBudget(), token), extractAllHeaders, options, null));
+            return mail;
+        }
+
+        var pec = new LazyPEC(resolver);
+        pec.setEnvelope(mail);
+        PECHandler.loadPECHeaders(pec, mimeMessage);
+
+        if (!isPECReceipt) {
+            resolver.bind(() -> copyPECContent((PEC) extractContent(mail, mimeMessage, true, false, contexts.get(), new ResourceGuard(options.getBudget(), token), extractAllHeaders, options, null), pec));
+            return pec;
+        }
+
+        var pecReceipt = new LazyPECReceipt(resolver);
+        pecReceipt.setPec(pec);
+        resolver.bind(() -> {
+            copyPECContent((PEC) extractContent(mail, mimeMessage, isPEC, true, contexts.get(), new ResourceGuard(options.getBudget(), token), extractAllHeaders, options, null), pec);
+            var receipt = loadReceipt(pec, contexts.get(), token, options);
+            pecReceipt.setCertificateData(receipt.getCertificateData());
+            pecReceipt.getDiagnostics().addAll(receipt.getDiagnostics());
+        });
+
+        return pecReceipt;
+    }
+
+    private static void copyPECContent(PEC source, PEC target) {
+        target.setPostaCert(source.getPostaCert());
+        target.setDatiCert(source.getDatiCert());
+        target.setOriginalMessage(source.getOriginalMessage());
+        target.setCertificateData(source.getCertificateData());
+        target.getDiagnostics().addAll(source.getDiagnostics());
+    }
+
+    private static PECReceipt loadReceipt(PEC pec, ParserContext context, CancellationToken token, ParseOptions options) {
+
+        if (!options.isLenient()) {
+            try {
+                return PECHandler.loadReceipt(pec, context, token);
 
+            } catch (RuntimeException e) {
+                closeQuietly(pec, e);
+                throw e;
+            }
+        }
+
+        // datiCert.xml has already been read leniently by the PEC extraction, its diagnostics are moved to the receipt
+        var pecReceipt = new PECReceipt();
+        pecReceipt.setPec(pec);
+        pecReceipt.setCertificateData(pec.getCertificateData());
+        pecReceipt.getDiagnostics().addAll(pec.getDiagnostics());
+        pec.getDiagnostics().clear();
+        return pecReceipt;
+    }
+
+    private static void extractHeaders(Mail mail, MimeMessage mimeMessage, boolean extractAllHeaders, ParseOptions options) {
+        attempt(mail, options, "", () -> ParseDiagnostic.Stage.HEADERS, () -> mail.setMessageID(MimeMessageUtils.getMessageID(mimeMessage)));
+        attempt(mail, options, "", () -> ParseDiagnostic.Stage.HEADERS, () -> extractAddresses(mail, mimeMessage));
+        attempt(mail, options, "", () -> ParseDiagnostic.Stage.HEADERS, () -> {
+            mail.setSentDate(MimeMessageUtils.getSentDate(mimeMessage));
+            mail.setReceivedDate(MimeMessageUtils.getReceivedDate(mimeMessage));
+            mail.setSubject(MimeMessageUtils.getSubject(mimeMessage));
+        });
+        attempt(mail, options, "", () -> ParseDiagnostic.Stage.HEADERS, () -> extractReplyReferences(mail, mimeMessage));
+
+        if (extractAllHeaders) {
+            attempt(mail, options, "", () -> ParseDiagnostic.Stage.HEADERS, () -> mail.setHeaders(StreamSupport.stream(Spliterators.spliteratorUnknownSize(MimeMessageUtils.getAllHeaders(mimeMessage).asIterator(), 0), false)
+                    .map(e -> Header.builder().key(e.getName()).value(e.getValue()).build()).toList()));
+        }
+    }
+
+    private static void extractAddresses(Mail mail, MimeMessage mimeMessage) {
         var from = MimeMessageUtils.getFrom(mimeMessage);
         mail.setFrom(from.stream().filter(r -> r instanceof InternetAddress).map(r -> {
             var ia = (InternetAddress) r;
@@ -174,12 +611,9 @@ public class MailParser {
             return app.tozzi.model.Address.builder().email(ia.getAddress()).name(ia.getPersonal()).build();
 
         }).toList());
+    }
 
-        mail.setSentDate(MimeMessageUtils.getSentDate(mimeMessage));
-        mail.setReceivedDate(MimeMessageUtils.getReceivedDate(mimeMessage));
-        mail.setSubject(MimeMessageUtils.getSubject(mimeMessage));
-
-
+    private static void extractReplyReferences(Mail mail, MimeMessage mimeMessage) {
         var inReplyTO = MimeMessageUtils.getHeader(mimeMessage, PECConstants.IN_REPLY_TO);
         if (inReplyTO != null) {
             mail.setReplyToMessageID(inReplyTO.replaceAll("<", "").replaceAll(">", ""));
@@ -189,69 +623,224 @@ public class MailParser {
         if (referencesHeader != null) {
             mail.setReplyToHistoryMessagesID(Stream.of(Stream.of(referencesHeader).toList().get(0).split(" ")).map(r -> r.replaceAll("<", "").replaceAll(">", "")).toList());
         }
+    }
 
-        if (extractAllHeaders) {
-            mail.setHeaders(StreamSupport.stream(Spliterators.spliteratorUnknownSize(MimeMessageUtils.getAllHeaders(mimeMessage).asIterator(), 0), false)
-                    .map(e -> Header.builder().key(e.getName()).value(e.getValue()).build()).toList());
+    private static ParsedEntity extractContent(Mail mail, MimeMessage mimeMessage, boolean isPEC, boolean isPECReceipt, ParserContext context, ResourceGuard guard, boolean extractAllHeaders, ParseOptions options, Streaming streaming) {
 
+        if (options.isMetadataOnly() && !isPEC && !isPECReceipt) {
+            return mail;
         }
 
-        return extractContent(mail, mimeMessage, isPEC, isPECReceipt, properties, extractAllHeaders);
-    }
-
-    private static ParsedEntity extractContent(Mail mail, MimeMessage mimeMessage, boolean isPEC, boolean isPECReceipt, Properties properties, boolean extractAllHeaders) {
-        DataSourcePair<DataSource, DataSource> dsp = isPEC || isPECReceipt ? new DataSourcePair<>() : null;
-        extractContent(mail, mimeMessage, isPEC, isPECReceipt, dsp);
+        var dsp = isPEC || isPECReceipt ? new PECParts() : null;
+        extractContent(mail, mimeMessage, isPEC, isPECReceipt, dsp, context, guard, options, streaming);
 
         if (isPEC || isPECReceipt) {
 
             if (isPEC && dsp.getElementA() == null) {
-                throw new MailParserException("Invalid PEC");
+
+                if (!options.isLenient()) {
+                    throw new MailParserException("Invalid PEC");
+                }
+
+                mail.getDiagnostics().add(diagnostic("", ParseDiagnostic.Stage.POSTACERT, new MailParserException("Invalid PEC: postacert.eml not found")));
+            }
+
+            var postaCert = dsp.getElementA() != null ? new MimePartDataSource(dsp.getElementA()) : null;
+            Mail originalMessage = null;
+
+            if (postaCert != null && options.isExtractOriginalMessage()) {
+                originalMessage = attempt(mail, options, dsp.postaCertPath, () -> ParseDiagnostic.Stage.POSTACERT, () -> {
+                    var postaCertMimeMessage = MimeMessageUtils.getEmbeddedMessage(dsp.getElementA(), context.getSession());
+                    guard.enter();
+                    try {
+                        return (Mail) extract(postaCertMimeMessage, false, false, context, guard, extractAllHeaders, options, streaming != null ? streaming.handler : null);
+
+                    } finally {
+                        guard.exit();
+                    }
+                });
             }
 
+            PEC pec;
+
             try {
-                var postaCertMimeMessage = dsp.getElementA() != null ? MimeMessageUtils.createMimeMessage(dsp.getElementA().getInputStream(), properties) : null;
-                return PECHandler.loadPEC(postaCertMimeMessage != null ? (Mail) extract(postaCertMimeMessage, false, false, properties, extractAllHeaders) : null, mail, dsp.getElementA(), dsp.getElementB(), mimeMessage);
+                pec = options.isLenient()
+                        ? loadPEC(originalMessage, mail, postaCert, dsp.getElementB(), dsp.datiCertPath, mimeMessage, isPECReceipt, context, guard.getToken(), options)
+                        : PECHandler.loadPEC(originalMessage, mail, postaCert, dsp.getElementB(), mimeMessage, context, guard.getToken());
 
-            } catch (IOException e) {
-                throw new MailParserException(e);
+            } catch (RuntimeException e) {
+                if (originalMessage != null) {
+                    closeQuietly(originalMessage, e);
+                }
+
+                throw e;
             }
+
+            if (streaming != null && pec.getCertificateData() != null) {
+                streaming.push(() -> streaming.handler.onCertificateData(pec.getCertificateData()));
+            }
+
+            return pec;
         }
 
         return mail;
     }
 
-    private static void extractContent(Mail mail, MimePart part, boolean isPEC, boolean isPECReceipt, DataSourcePair<DataSource, DataSource> pecAttachments) {
-        var content = MimeMessageUtils.getContent(part);
+    /**
+     * Lenient PEC extraction: datiCert.xml errors are reported as diagnostics, partial certificate data is kept.
+     * The diagnostics of the envelope are moved to the PEC
+     */
+    private static PEC loadPEC(Mail originalMessage, Mail envelope, DataSource postaCert, DataSource datiCert, String datiCertPath, MimeMessage mimeMessage, boolean isPECReceipt, ParserContext context, CancellationToken token, ParseOptions options) {
+        var pec = PECHandler.loadPEC(originalMessage, envelope, postaCert, null, mimeMessage, context, token);
+        pec.setDatiCert(datiCert);
+
+        if (datiCert != null) {
+            var errors = new ArrayList<MailParserException>();
+            pec.setCertificateData(attempt(envelope, options, datiCertPath, () -> ParseDiagnostic.Stage.DATICERT, () -> PECHandler.loadCertificateData(datiCert, context, token, errors)));
+            errors.forEach(e -> envelope.getDiagnostics().add(diagnostic(datiCertPath, ParseDiagnostic.Stage.DATICERT, e)));
+
+        } else if (isPECReceipt) {
+            envelope.getDiagnostics().add(diagnostic("", ParseDiagnostic.Stage.DATICERT, new MailParserException("Invalid PEC receipt: datiCert.xml not found")));
+        }
+
+        pec.getDiagnostics().addAll(envelope.getDiagnostics());
+        envelope.getDiagnostics().clear();
+        return pec;
+    }
+
+    /**
+     * Walks the MIME tree of root with an explicit work queue instead of recursion: parts are visited depth-first, in document order
+     */
+    private static void extractContent(Mail mail, MimePart root, boolean isPEC, boolean isPECReceipt, PECParts pecAttachments, ParserContext context, ResourceGuard guard, ParseOptions options, Streaming streaming) {
+        Deque<PartTask> queue = new ArrayDeque<>();
+        queue.push(new PartTask(root, "", 1));
+        List<PendingAttachment> pending = options.getAttachmentExecutor() != null && !options.isDeferAttachmentDecoding() && streaming == null ? new ArrayList<>() : null;
+        var bodyHTML = new StringBuilder();
+
+        try {
+            while (!queue.isEmpty()) {
+                var task = queue.pop();
+                guard.enter(task.level);
+                guard.checkHeaders(MimeMessageUtils.countHeaders(task.part));
+                attempt(mail, options, task.path, () -> stage(task.part), () -> extractPart(mail, task, queue, pending, bodyHTML, isPEC, isPECReceipt, pecAttachments, context, guard, options, streaming));
+            }
+
+            if (mail.getBodyHTML() != null) {
+                mail.setBodyHTML(bodyHTML.toString());
+            }
+
+            if (pending != null) {
+                completeAttachments(mail, pending, options);
+            }
+
+        } catch (RuntimeException e) {
+            if (pending != null) {
+                pending.forEach(p -> {
+                    if (!p.future.cancel(false)) {
+                        p.future.thenAccept(IOUtils::closeQuietly);
+                    }
+                });
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the attachments decoded on the executor, in document order: the attachments are filled in the positions reserved during the traversal
+     */
+    private static void completeAttachments(Mail mail, List<PendingAttachment> pending, ParseOptions options) {
+
+        for (var p : pending) {
+            var dataSource = attempt(mail, options, p.path, () -> ParseDiagnostic.Stage.ATTACHMENT, () -> {
+
+                try {
+                    return p.future.join();
+
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof RuntimeException re ? re : new MailParserException("Error extracting attachment", e.getCause());
+                }
+            });
+
+            if (dataSource == null) {
+                mail.getAttachments().removeIf(a -> a == p.attachment);
+                continue;
+            }
+
+            p.attachment.setName(dataSource.getName());
+            p.attachment.setContentType(dataSource.getContentType());
+            p.attachment.setDataSource(dataSource);
+        }
+    }
+
+    private static void extractPart(Mail mail, PartTask task, Deque<PartTask> queue, List<PendingAttachment> pending, StringBuilder bodyHTML, boolean isPEC, boolean isPECReceipt, PECParts pecAttachments, ParserContext context, ResourceGuard guard, ParseOptions options, Streaming streaming) {
+        var part = task.part;
 
         if (MimeMessageUtils.isMimeType(part, MimeTypesUtil.CONTENT_TYPE_TEXT_PLAIN)
                 && !Part.ATTACHMENT.equalsIgnoreCase(MimeMessageUtils.getDisposition(part))
-                && mail.getBodyTXT() == null) {
+                && mail.getBodyTXT() == null && (streaming == null || !streaming.bodyTXT)) {
 
-            var body = content.toString();
+            if (!options.isExtractBodies()) {
+                return;
+            }
+
+            if (streaming != null) {
+                streaming.bodyTXT = true;
+                streaming.stream(part, false, body -> streaming.handler.onBodyTXT(body, MimeMessageUtils.getCharset(part)));
+                return;
+            }
+
+            // uuencoded attachments may follow the text: the whole body is decoded to extract them
+            var builder = new StringBuilder();
+            appendBody(part, builder, options.isExtractAttachments() ? 0 : options.getMaxBodySize(), context, guard);
+            var body = builder.toString();
 
             if (UUEncodingUtils.containsEncodedAttachments(body)) {
                 body = body.substring(0, UUEncodingUtils.getNextBeginIndex(body));
-                mail.getAttachments().addAll(UUEncodingUtils.decodeAttachments(body));
+                if (options.isExtractAttachments()) {
+                    var attachments = UUEncodingUtils.decodeAttachments(body);
+                    attachments.forEach(attachment -> guard.addAttachmentBytes(attachment.getDecodedSize()));
+                    mail.getAttachments().addAll(attachments);
+                }
             }
 
-            mail.setBodyTXT(body);
+            mail.setBodyTXT(truncate(body, options));
 
         } else if (MimeMessageUtils.isMimeType(part, MimeTypesUtil.CONTENT_TYPE_TEXT_HTML)
                 && !Part.ATTACHMENT.equalsIgnoreCase(MimeMessageUtils.getDisposition(part))) {
 
-            mail.setBodyHTML(mail.getBodyHTML() != null ? mail.getBodyHTML() + content.toString() : content.toString());
+            if (!options.isExtractBodies()) {
+                return;
+            }
+
+            if (streaming != null) {
+                streaming.stream(part, false, body -> streaming.handler.onBodyHTML(body, MimeMessageUtils.getCharset(part)));
+                return;
+            }
+
+            // HTML parts are accumulated by the traversal, set once at its end
+            appendBody(part, bodyHTML, options.getMaxBodySize(), context, guard);
+
+            if (mail.getBodyHTML() == null) {
+                mail.setBodyHTML("");
+            }
 
         } else if (MimeMessageUtils.isMimeType(part, MimeTypesUtil.CONTENT_TYPE_MULTIPART)) {
 
-            var multipart = (Multipart) content;
-            for (int i = 0; i < MimeMessageUtils.getCount(multipart); i++) {
-                extractContent(mail, (MimePart) MimeMessageUtils.getBodyPart(multipart, i), isPEC, isPECReceipt, pecAttachments);
+            // pushed backwards, so that children are popped in document order
+            var multipart = (Multipart) MimeMessageUtils.getContent(part);
+            for (int i = MimeMessageUtils.getCount(multipart) - 1; i >= 0; i--) {
+                queue.push(new PartTask((MimePart) MimeMessageUtils.getBodyPart(multipart, i), task.path.isEmpty() ? String.valueOf(i + 1) : task.path + "." + (i + 1), task.level + 1));
             }
 
         } else if (MimeMessageUtils.isMimeType(part, MimeTypesUtil.CONTENT_TYPE_DELIVERY_STATUS)) {
+
+            if (options.isMetadataOnly()) {
+                return;
+            }
+
             mail.setHasDeliveryStatus(true);
-            mail.setDeliveryStatus(DeliveryStatusHandler.loadDeliveryStatus(part));
+            mail.setDeliveryStatus(DeliveryStatusHandler.loadDeliveryStatus(part, guard));
 
         } else {
             var pec = false;
@@ -263,43 +852,393 @@ public class MailParser {
                         && MimeMessageUtils.isMimeType(part, MimeTypesUtil.CONTENT_TYPE_MESSAGE_RFC822)) {
 
                     pec = true;
-                    try {
-                        pecAttachments.setElementA(IOUtils.createDataSource(part));
-
-                    } catch (IOException e) {
-                        throw new MailParserException("Error extracting PEC postaCert.eml attachment", e);
-                    }
+                    pecAttachments.setElementA(part);
+                    pecAttachments.postaCertPath = task.path;
                 } else if (pecAttachments.getElementB() == null
                         && (PECConstants.DATICERT_XML_NAME.equalsIgnoreCase(MimeMessageUtils.decodeText(MimeMessageUtils.getFileName(part))) || PECConstants.DATICERT_XML_NAME.equals(MimeMessageUtils.getFileName(part)))
                         && MimeMessageUtils.isMimeType(part, MimeTypesUtil.CONTENT_TYPE_APPLICATION_XML)) {
 
                     pec = true;
+                    pecAttachments.datiCertPath = task.path;
                     try {
-                        pecAttachments.setElementB(IOUtils.createDataSource(part));
+                        pecAttachments.setElementB(createDataSource(part, context.getScratchBuffer(), guard, guard.attachmentListener(), 0, null));
                     } catch (IOException e) {
                         throw new MailParserException("Error extracting PEC datiCert.xml attachment", e);
                     }
                 }
             }
 
-            if (!pec) {
+            if (!pec && options.isMetadataOnly()) {
+                return;
+            }
+
+            if (!pec && streaming != null) {
+                var attachment = describeAttachment(part, true, false);
+
+                if (options.isExtractAttachments()) {
+                    streaming.stream(part, true, content -> streaming.handler.onAttachment(attachment, content));
+
+                } else {
+                    mail.getAttachments().add(attachment);
+                }
+
+            } else if (!pec && !options.isExtractAttachments()) {
+                mail.getAttachments().add(describeAttachment(part, true, options.isExactAttachmentSizes()));
+
+            } else if (!pec && pending != null) {
+                var attachment = describeAttachment(part, false, false);
+                var future = new CompletableFuture<DataSource>();
+                mail.getAttachments().add(attachment);
+                pending.add(new PendingAttachment(attachment, task.path, future));
+                options.getAttachmentExecutor().execute(() -> decodeAttachment(part, attachment, guard, options, future));
+
+            } else if (!pec) {
+                var attachment = describeAttachment(part, options.isDeferAttachmentDecoding(), false);
                 DataSource dataSource;
 
                 try {
-                    dataSource = IOUtils.createDataSource(part);
+                    dataSource = options.isDeferAttachmentDecoding() ? IOUtils.createDeferredDataSource(part) : createAttachmentDataSource(part, attachment, context.getScratchBuffer(), guard, options, null);
 
                 } catch (IOException e) {
                     throw new MailParserException("Error extracting attachment", e);
                 }
 
-                mail.getAttachments().add(Attachment.builder()
-                        .name(dataSource.getName())
-                        .dataSource(dataSource)
-                        .contentID(MimeMessageUtils.getHeaderValue(MailConstants.CONTENT_ID, part))
-                        .xAttachmentID(MimeMessageUtils.getHeaderValue(MailConstants.X_ATTACHMENT_ID, part))
-                        .inline(Part.INLINE.equals(MimeMessageUtils.getDisposition(part))).build()
-                );
+                attachment.setName(dataSource.getName());
+                attachment.setContentType(dataSource.getContentType());
+                attachment.setDataSource(dataSource);
+                mail.getAttachments().add(attachment);
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Attachment with the metadata of the part, without content
+     *
+     * @param estimateSize true if the decoded size is computed without decoding, false if it is set by the decoding
+     * @param exactSize    true if the estimate scans the raw content (exact for base64), false if it is derived from the raw size only
+     */
+    private static Attachment describeAttachment(MimePart part, boolean estimateSize, boolean exactSize) {
+        var encoding = MimeMessageUtils.getEncoding(part);
+        var attachment = Attachment.builder()
+                .name(IOUtils.loadNameForDataSource(part))
+                .contentType(MimeMessageUtils.getBaseContentType(part))
+                .contentID(MimeMessageUtils.getHeaderValue(MailConstants.CONTENT_ID, part))
+                .xAttachmentID(MimeMessageUtils.getHeaderValue(MailConstants.X_ATTACHMENT_ID, part))
+                .inline(Part.INLINE.equals(MimeMessageUtils.getDisposition(part)))
+                .contentTransferEncoding(encoding != null ? encoding.trim().toLowerCase() : null)
+                .rawSize(MimeMessageUtils.getSize(part))
+                .decodedSize(-1).build();
+
+        if (estimateSize && exactSize) {
+            try {
+                attachment.setDecodedSize(IOUtils.getDecodedSize(part));
+                attachment.setDecodedSizeExact(attachment.getDecodedSize() >= 0 && IOUtils.isDecodedSizeExact(encoding));
+
+            } catch (IOException e) {
+                throw new MailParserException("Error reading attachment size", e);
+            }
+
+        } else if (estimateSize) {
+            attachment.setDecodedSize(IOUtils.estimateDecodedSize(part));
+            attachment.setDecodedSizeExact(attachment.getDecodedSize() >= 0 && IOUtils.isEstimatedSizeExact(encoding));
+        }
+
+        return attachment;
+    }
+
+    private static void attempt(Mail mail, ParseOptions options, String partPath, Supplier<ParseDiagnostic.Stage> stage, Runnable action) {
+        attempt(mail, options, partPath, stage, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs action: in lenient mode its failures are added to the diagnostics of mail and null is returned
+     */
+    private static <T> T attempt(Mail mail, ParseOptions options, String partPath, Supplier<ParseDiagnostic.Stage> stage, Supplier<T> action) {
+
+        if (!options.isLenient()) {
+            return action.get();
+        }
+
+        try {
+            return action.get();
+
+        } catch (ResourceLimitExceededException | ParseCancelledException e) {
+            throw e;
+
+        } catch (RuntimeException e) {
+            mail.getDiagnostics().add(diagnostic(partPath, stage.get(), e));
+            return null;
+        }
+    }
+
+    private static ParseDiagnostic diagnostic(String partPath, ParseDiagnostic.Stage stage, Throwable cause) {
+        return ParseDiagnostic.builder().partPath(partPath).stage(stage).message(cause.getMessage()).cause(cause).build();
+    }
+
+    private static ParseDiagnostic.Stage stage(MimePart part) {
+
+        try {
+            if (MimeMessageUtils.isMimeType(part, MimeTypesUtil.CONTENT_TYPE_MULTIPART)) {
+                return ParseDiagnostic.Stage.MULTIPART;
+            }
+
+            if (MimeMessageUtils.isMimeType(part, MimeTypesUtil.CONTENT_TYPE_TEXT_PLAIN) || MimeMessageUtils.isMimeType(part, MimeTypesUtil.CONTENT_TYPE_TEXT_HTML)) {
+                return ParseDiagnostic.Stage.BODY;
+            }
+
+            if (MimeMessageUtils.isMimeType(part, MimeTypesUtil.CONTENT_TYPE_DELIVERY_STATUS)) {
+                return ParseDiagnostic.Stage.DELIVERY_STATUS;
+            }
+
+            var fileName = MimeMessageUtils.getFileName(part);
+            if (PECConstants.POSTACERT_EML_NAME.equalsIgnoreCase(fileName)) {
+                return ParseDiagnostic.Stage.POSTACERT;
+            }
+
+            if (PECConstants.DATICERT_XML_NAME.equalsIgnoreCase(fileName)) {
+                return ParseDiagnostic.Stage.DATICERT;
+            }
+
+        } catch (MailParserException e) {
+            // unreadable part headers: reported as attachment
+        }
+
+        return ParseDiagnostic.Stage.ATTACHMENT;
+    }
+
+    /**
+     * Decodes an attachment on the attachment executor. The scratch buffer of the context is confined to the parsing thread: every task copies through a pooled buffer
+     */
+    private static void decodeAttachment(MimePart part, Attachment attachment, ResourceGuard guard, ParseOptions options, CompletableFuture<DataSource> future) {
+
+        // cancelled by a failed traversal
+        if (future.isDone()) {
+            return;
+        }
+
+        var buffer = BufferPool.shared().acquire(IOUtils.BUFFER_SIZE, false);
+
+        try {
+            // a failed traversal completes the future: the copy stops at the next chunk instead of running to the end
+            var dataSource = createAttachmentDataSource(part, attachment, buffer, guard, options, chunk -> {
+                if (future.isDone()) {
+                    throw new CancellationException("Attachment decoding aborted");
+                }
+            });
+
+            if (!future.complete(dataSource)) {
+                IOUtils.closeQuietly(dataSource);
+            }
+
+        } catch (IOException e) {
+            future.completeExceptionally(new MailParserException("Error extracting attachment", e));
+
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+    }
+
+    /**
+     * Copies an attachment (or writes it through the sink), computing its decoded size, the requested digests (set on attachment) and the store key in the same pass
+     *
+     * @param abortCheck listener notified first with every chunk, throwing to abort the copy. Nullable
+     */
+    private static DataSource createAttachmentDataSource(MimePart part, Attachment attachment, ByteBuffer buffer, ResourceGuard guard, ParseOptions options, IOUtils.CopyListener abortCheck) throws IOException {
+        var sink = options.getAttachmentSink();
+        var store = sink == null ? options.getAttachmentStore() : null;
+        var storeDigest = store != null ? AttachmentStore.newDigest() : null;
+        var attachmentDigests = DigestUtils.create(options.getDigestAlgorithms());
+        var decodedSize = new long[1];
+        var listener = guard.attachmentListener().andThen(chunk -> decodedSize[0] += chunk.remaining());
+
+        if (abortCheck != null) {
+            listener = abortCheck.andThen(listener);
+        }
+
+        if (!attachmentDigests.isEmpty()) {
+            listener = listener.andThen(DigestUtils.listener(attachmentDigests.values()));
+        }
+
+        if (storeDigest != null) {
+            listener = listener.andThen(storeDigest::update);
+        }
+
+        DataSource dataSource;
+
+        if (sink != null) {
+            try (var content = IOUtils.getInputStream(part, listener)) {
+                dataSource = sink.write(attachment, IOUtils.closeShield(content));
+
+                // what the sink left unread still counts for budget, size and digests
+                content.transferTo(OutputStream.nullOutputStream());
+            }
+
+            if (dataSource == null) {
+                throw new MailParserException("Attachment sink returned no data source");
+            }
+
+        } else {
+            dataSource = createDataSource(part, buffer, guard, listener, options.getSpillThreshold(), options.getSpillDirectory());
+        }
+
+        // slices of the source are not copied: their size is known, they are read once to be hashed and there is nothing to share
+        if (dataSource instanceof SharedStreamDataSource sharedStreamDataSource) {
+            decodedSize[0] = sharedStreamDataSource.getSize();
+
+            if (!attachmentDigests.isEmpty()) {
+                DigestUtils.update(dataSource.getInputStream(), attachmentDigests.values(), buffer);
+            }
+
+        } else if (store != null) {
+            dataSource = store.put(storeDigest.digest(), dataSource);
+        }
+
+        attachment.setDecodedSize(decodedSize[0]);
+        attachment.setDecodedSizeExact(true);
+        attachment.setDigests(DigestUtils.toHex(attachmentDigests));
+        return dataSource;
+    }
+
+    private static DataSource createDataSource(MimePart part, ByteBuffer buffer, ResourceGuard guard, IOUtils.CopyListener listener, long spillThreshold, Path spillDirectory) throws IOException {
+        var dataSource = IOUtils.createDataSource(part, buffer, listener, spillThreshold, spillDirectory);
+
+        if (dataSource instanceof SharedStreamDataSource sharedStreamDataSource) {
+            guard.addAttachmentBytes(sharedStreamDataSource.getSize());
+        }
+
+        return dataSource;
+    }
+
+    /**
+     * MIME part waiting to be extracted
+     */
+    @RequiredArgsConstructor
+    private static final class PartTask {
+
+        /**
+         * Part
+         */
+        private final MimePart part;
+
+        /**
+         * IMAP style path of the part, empty for the message itself
+         */
+        private final String path;
+
+        /**
+         * Nesting level, 1 for the message itself
+         */
+        private final int level;
+    }
+
+    /**
+     * postacert.eml part and datiCert.xml content of a PEC, with their IMAP style paths for diagnostics
+     */
+    private static final class PECParts extends DataSourcePair<MimePart, DataSource> {
+
+        private String postaCertPath = "";
+        private String datiCertPath = "";
+    }
+
+    /**
+     * Attachment whose content is being decoded on the attachment executor
+     */
+    @RequiredArgsConstructor
+    private static final class PendingAttachment {
+
+        /**
+         * Attachment already added to the mail, without content
+         */
+        private final Attachment attachment;
+
+        /**
+         * IMAP style path of the part
+         */
+        private final String path;
+
+        private final CompletableFuture<DataSource> future;
+    }
+
+    /**
+     * State of a {@link ParseHandler} driven extraction of a single message
+     */
+    @RequiredArgsConstructor
+    private static final class Streaming {
+
+        private final ParseHandler handler;
+        private final ResourceGuard guard;
+        private boolean bodyTXT;
+
+        private void push(Callback callback) {
+
+            try {
+                callback.call();
+
+            } catch (IOException e) {
+                throw new MailParserException("Error in parse handler", e);
+            }
+        }
+
+        private void stream(MimePart part, boolean attachment, StreamCallback callback) {
+
+            try (var content = this.guard.stream(IOUtils.getDecodedInputStream(part), attachment)) {
+                callback.call(content);
+
+            } catch (IOException e) {
+                throw new MailParserException("Error in parse handler", e);
+            }
+        }
+
+        @FunctionalInterface
+        private interface Callback {
+            void call() throws IOException;
+        }
+
+        @FunctionalInterface
+        private interface StreamCallback {
+            void call(InputStream content) throws IOException;
+        }
+    }
+
+    /**
+     * Decodes a text body into target through the cached decoder of its charset, until target reaches limit characters (no limit if zero or negative).
+     * Nothing is appended if decoding fails
+     */
+    private static void appendBody(MimePart part, StringBuilder target, int limit, ParserContext context, ResourceGuard guard) {
+        var charset = MimeMessageUtils.getJavaCharset(part);
+        var maxLength = limit > 0 ? limit : Integer.MAX_VALUE;
+        var length = target.length();
+
+        try {
+            // unsupported charsets are left to the content handler, failing as it does
+            if (charset == null) {
+                var content = MimeMessageUtils.getContent(part).toString();
+                guard.addBodyBytes(content.length());
+                target.append(content, 0, Math.min(content.length(), Math.max(0, maxLength - length)));
+                return;
+            }
+
+            try (var inputStream = IOUtils.getDecodedInputStream(part)) {
+                IOUtils.appendText(inputStream, context.getDecoder(charset), context.getCharBuffer(), target, maxLength, chunk -> guard.addBodyBytes(chunk.remaining()));
+            }
+
+        } catch (IOException e) {
+            target.setLength(length);
+            throw new MailParserException("Error reading body", e);
+
+        } catch (RuntimeException e) {
+            target.setLength(length);
+            throw e;
+        }
+    }
+
+    private static String truncate(String body, ParseOptions options) {
+        return body != null && options.getMaxBodySize() > 0 && body.length() > options.getMaxBodySize() ? body.substring(0, options.getMaxBodySize()) : body;
+    }
+}
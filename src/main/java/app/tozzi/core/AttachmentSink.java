@@ -0,0 +1,32 @@
+package app.tozzi.core;
+
+import app.tozzi.model.Attachment;
+import jakarta.activation.DataSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Destination of the decoded attachments: {@link app.tozzi.MailParser} writes every non-PEC attachment through the sink instead of copying it in memory,
+ * and stores the returned handle as {@link Attachment#getDataSource()}.<br>
+ * Implementations must be thread-safe when attachments are decoded on an executor (see {@link app.tozzi.model.ParseOptions#getAttachmentExecutor()}).<br>
+ * If the parse fails after some attachments were written (e.g. budget exceeded, cancellation, I/O errors) the written content is neither removed nor reported:
+ * implementations that must not leave it behind keep track of what they wrote.
+ *
+ * @author Biagio Tozzi
+ * @see FileSystemAttachmentSink
+ * @see InMemoryAttachmentSink
+ */
+@FunctionalInterface
+public interface AttachmentSink {
+
+    /**
+     * Writes an attachment
+     *
+     * @param attachment metadata of the attachment: name, content type, Content-ID, X-Attachment-Id, inline flag, transfer encoding and raw size
+     * @param content    decoded content: the sink may close it (the close is ignored), the parser reads what is left unread and closes it after the call
+     * @return handle over the written content, with name and content type of the attachment
+     * @throws IOException
+     */
+    DataSource write(Attachment attachment, InputStream content) throws IOException;
+}
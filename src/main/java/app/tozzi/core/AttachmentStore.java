@@ -0,0 +1,90 @@
+package app.tozzi.core;
+
+import app.tozzi.model.exception.MailParserException;
+import app.tozzi.util.BlobDataSource;
+import app.tozzi.util.IOUtils;
+import jakarta.activation.DataSource;
+
+import java.io.Closeable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content-addressable store of attachment contents, keyed by the SHA-256 of the decoded bytes computed while they are copied.<br>
+ * Attachments with the same content (e.g. the same document in the PEC envelope, in postacert.eml and in every receipt quoting it) share one stored copy,
+ * also across messages parsed with the same store. The store owns the contents: {@link #close()} releases them (temporary files included), after which they cannot be read.<br>
+ * Thread-safe.
+ *
+ * @author Biagio Tozzi
+ */
+public class AttachmentStore implements Closeable {
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final Map<String, DataSource> blobs = new ConcurrentHashMap<>();
+
+    /**
+     * Stores a content. If an equal content is already stored, content is released and the stored one is shared
+     *
+     * @param digest  SHA-256 of content, see {@link #newDigest()}
+     * @param content decoded content
+     * @return {@link BlobDataSource} with name and content type of content, over the stored content
+     */
+    public BlobDataSource put(byte[] digest, DataSource content) {
+        var hash = HexFormat.of().formatHex(digest);
+        var blob = this.blobs.putIfAbsent(hash, content);
+
+        if (blob != null) {
+            IOUtils.closeQuietly(content);
+
+        } else {
+            blob = content;
+        }
+
+        return new BlobDataSource(hash, blob, content.getContentType(), content.getName());
+    }
+
+    /**
+     * Stored content
+     *
+     * @param hash hex encoded SHA-256 of the content
+     * @return {@link DataSource}, null if no content has this hash
+     */
+    public DataSource get(String hash) {
+        return this.blobs.get(hash);
+    }
+
+    /**
+     * @return number of distinct contents
+     */
+    public int size() {
+        return this.blobs.size();
+    }
+
+    /**
+     * Releases every stored content
+     */
+    @Override
+    public void close() {
+        this.blobs.values().forEach(IOUtils::closeQuietly);
+        this.blobs.clear();
+    }
+
+    /**
+     * Creates the digest keying the contents, to be updated with the decoded bytes
+     *
+     * @return SHA-256 {@link MessageDigest}
+     */
+    public static MessageDigest newDigest() {
+
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+
+        } catch (NoSuchAlgorithmException e) {
+            throw new MailParserException("Digest algorithm not available: " + HASH_ALGORITHM, e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package app.tozzi.core;
+
+import app.tozzi.model.exception.ParseCancelledException;
+
+import java.time.Duration;
+
+/**
+ * Cooperative cancellation of a parse.<br>
+ * The parser checks the token between MIME parts, while attachments are copied and between daticert.xml lookups:
+ * a cancelled or expired parse stops at the next check with {@link ParseCancelledException}.
+ * A token can be cancelled from any thread.
+ *
+ * @author Biagio Tozzi
+ */
+public final class CancellationToken {
+
+    private final long deadline;
+    private final boolean hasDeadline;
+    private volatile boolean cancelled;
+
+    private CancellationToken(long deadline, boolean hasDeadline) {
+        this.deadline = deadline;
+        this.hasDeadline = hasDeadline;
+    }
+
+    /**
+     * Token without deadline, cancelled only by {@link #cancel()}
+     *
+     * @return {@link CancellationToken}
+     */
+    public static CancellationToken create() {
+        return new CancellationToken(0, false);
+    }
+
+    /**
+     * Token expiring after timeout, measured from now
+     *
+     * @param timeout timeout
+     * @return {@link CancellationToken}
+     */
+    public static CancellationToken withTimeout(Duration timeout) {
+        return new CancellationToken(System.nanoTime() + timeout.toNanos(), true);
+    }
+
+    /**
+     * Requests the cancellation of the parse
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public boolean isExpired() {
+        return this.hasDeadline && System.nanoTime() - this.deadline >= 0;
+    }
+
+    /**
+     * @throws ParseCancelledException if the token is cancelled or expired
+     */
+    public void throwIfCancelled() {
+
+        if (this.cancelled) {
+            throw new ParseCancelledException(ParseCancelledException.Reason.CANCELLED);
+        }
+
+        if (isExpired()) {
+            throw new ParseCancelledException(ParseCancelledException.Reason.DEADLINE_EXCEEDED);
+        }
+    }
+}
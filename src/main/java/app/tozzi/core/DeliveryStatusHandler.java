@@ -1,12 +1,13 @@
 package app.tozzi.core;
 
 import app.tozzi.model.DeliveryStatus;
+import app.tozzi.model.ResourceBudget;
 import app.tozzi.model.exception.MailParserException;
+import app.tozzi.util.IOUtils;
 import app.tozzi.util.MailConstants;
 import jakarta.mail.internet.MimePart;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 
 /**
  * Delivery Status management
@@ -22,14 +23,24 @@ public class DeliveryStatusHandler {
      * @return {@link DeliveryStatus} object with delivery status info
      */
     public static DeliveryStatus loadDeliveryStatus(MimePart part) {
+        return loadDeliveryStatus(part, new ResourceGuard(ResourceBudget.unlimited()));
+    }
 
-        var deliveryStatus = new DeliveryStatus();
+    /**
+     * Extracts a {@link DeliveryStatus} object from {@link MimePart} part, accounting its bytes against the budget of the message
+     *
+     * @param part
+     * @param guard {@link ResourceGuard} of the message
+     * @return {@link DeliveryStatus} object with delivery status info
+     */
+    public static DeliveryStatus loadDeliveryStatus(MimePart part, ResourceGuard guard) {
 
-        try (var br = new BufferedReader(new InputStreamReader(part.getInputStream()))) {
+        var deliveryStatus = new DeliveryStatus();
 
-            var line = br.readLine();
+        // split into lines through a pooled buffer, without a reader
+        try (var is = guard.stream(part.getInputStream(), false)) {
 
-            while (line != null) {
+            IOUtils.readLines(is, Charset.defaultCharset(), line -> {
 
                 if (line.toLowerCase().startsWith(MailConstants.DELIVERY_ACTION.toLowerCase() + ":")) {
                     deliveryStatus.setAction(DeliveryStatus.Action.from(line.substring(MailConstants.DELIVERY_ACTION.length() + 1).trim()));
@@ -93,10 +104,10 @@ public class DeliveryStatusHandler {
                     }
                     deliveryStatus.setFinalRecipient(fr);
                 }
+            });
 
-                line = br.readLine();
-            }
-
+        } catch (MailParserException e) {
+            throw e;
 
         } catch (Exception e) {
             throw new MailParserException(e);
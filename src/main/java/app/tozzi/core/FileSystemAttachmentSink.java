@@ -0,0 +1,55 @@
+package app.tozzi.core;
+
+import app.tozzi.model.Attachment;
+import app.tozzi.util.PathDataSource;
+import jakarta.activation.DataSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * {@link AttachmentSink} writing every attachment to its own directory, named by a random UUID, under a base directory: {@code <directory>/<uuid>/<attachment name>}.<br>
+ * Written files belong to the caller: they are not deleted by {@link app.tozzi.model.ParsedEntity#close()}, nor when the parse fails.
+ *
+ * @author Biagio Tozzi
+ */
+public class FileSystemAttachmentSink implements AttachmentSink {
+
+    private static final String DEFAULT_NAME = "attachment";
+
+    private final Path directory;
+
+    public FileSystemAttachmentSink(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public DataSource write(Attachment attachment, InputStream content) throws IOException {
+        var file = Files.createDirectories(this.directory.resolve(UUID.randomUUID().toString())).resolve(fileName(attachment.getName()));
+        Files.copy(content, file);
+        return new PathDataSource(file, attachment.getContentType(), attachment.getName());
+    }
+
+    /**
+     * Base directory of the written attachments
+     *
+     * @return {@link Path}
+     */
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    private static String fileName(String name) {
+
+        if (name == null) {
+            return DEFAULT_NAME;
+        }
+
+        // names come from the message: no path traversal
+        var result = name.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        return result.isEmpty() || result.equals(".") || result.equals("..") ? DEFAULT_NAME : result;
+    }
+}
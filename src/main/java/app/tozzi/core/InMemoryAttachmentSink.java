@@ -0,0 +1,23 @@
+package app.tozzi.core;
+
+import app.tozzi.model.Attachment;
+import jakarta.activation.DataSource;
+import jakarta.mail.util.ByteArrayDataSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link AttachmentSink} keeping every attachment in a byte array, as {@link app.tozzi.MailParser} does without a sink
+ *
+ * @author Biagio Tozzi
+ */
+public class InMemoryAttachmentSink implements AttachmentSink {
+
+    @Override
+    public DataSource write(Attachment attachment, InputStream content) throws IOException {
+        var result = new ByteArrayDataSource(content.readAllBytes(), attachment.getContentType());
+        result.setName(attachment.getName());
+        return result;
+    }
+}
@@ -0,0 +1,121 @@
+package app.tozzi.core;
+
+import app.tozzi.model.MailEvent;
+import app.tozzi.model.MailEventType;
+import app.tozzi.model.exception.MailParserException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming (pull) mail reader.<br>
+ * The message is read once, with constant memory: no {@link jakarta.mail.internet.MimeMessage} is built.
+ * For every event the caller decides whether to consume it, buffer it or skip the rest of the entity with {@link #skipPart()}.<br>
+ * Chunks of {@link MailEventType#BODY_CHUNK} events are valid until the reader is advanced.
+ *
+ * @author Biagio Tozzi
+ */
+public class MailEventReader implements Iterator<MailEvent>, Closeable {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final InputStream inputStream;
+    private final MimeTokenizer tokenizer = new MimeTokenizer();
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+
+    private final Deque<MailEvent> open = new ArrayDeque<>();
+    private MailEvent next;
+
+    public MailEventReader(InputStream inputStream) {
+
+        if (inputStream == null) {
+            throw new MailParserException("Invalid stream");
+        }
+
+        this.inputStream = inputStream;
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        if (this.next == null) {
+            this.next = advance();
+        }
+
+        return this.next != null;
+    }
+
+    @Override
+    public MailEvent next() {
+
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        var event = this.next;
+        this.next = null;
+
+        if (event.getType() == MailEventType.START_MESSAGE || event.getType() == MailEventType.START_PART) {
+            this.open.push(event);
+
+        } else if (isEnd(event)) {
+            this.open.poll();
+        }
+
+        return event;
+    }
+
+    /**
+     * Skips the remaining content of the innermost entity (message or part) still open after the last returned event.<br>
+     * Its body and its nested parts produce no more events, its end event is still returned.
+     */
+    public void skipPart() {
+        var target = this.open.peek();
+
+        if (target == null) {
+            return;
+        }
+
+        if (this.next != null && (this.next.getDepth() > target.getDepth() || this.next.getEntityId() == target.getEntityId() && !isEnd(this.next))) {
+            this.next = null;
+        }
+
+        this.tokenizer.skip(target.getEntityId(), target.getDepth());
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.inputStream.close();
+    }
+
+    private static boolean isEnd(MailEvent event) {
+        return event.getType() == MailEventType.END_PART || event.getType() == MailEventType.END_MESSAGE;
+    }
+
+    private MailEvent advance() {
+        MailEvent event;
+
+        try {
+            while ((event = this.tokenizer.next()) == null && !this.tokenizer.isDone()) {
+                var n = this.inputStream.read(this.readBuffer);
+
+                if (n < 0) {
+                    this.tokenizer.finish();
+
+                } else {
+                    this.tokenizer.feed(this.readBuffer, 0, n);
+                }
+            }
+
+        } catch (IOException e) {
+            throw new MailParserException("Error reading mail stream", e);
+        }
+
+        return event;
+    }
+}
@@ -0,0 +1,107 @@
+package app.tozzi.core;
+
+import app.tozzi.model.Classification;
+import app.tozzi.model.MailEvent;
+import app.tozzi.model.MailEventType;
+import app.tozzi.model.exception.MailParserException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Non-blocking, push-fed mail parser for event loop pipelines.<br>
+ * Bytes are given with {@link #feed(ByteBuffer)} as they are received and events are taken with {@link #poll()}, which never waits for input:
+ * it returns null when the fed bytes are exhausted. {@link #finish()} signals the end of the message.<br>
+ * Events are the same emitted by {@link MailEventReader}; chunks of {@link MailEventType#BODY_CHUNK} events are valid until the next call to {@link #poll()}.
+ * Fed bytes are retained until they are tokenized, so {@link #poll()} should be drained after every {@link #feed(ByteBuffer)}.<br>
+ * Not thread-safe: each instance must be used by a single thread (or event loop) at a time.
+ *
+ * @author Biagio Tozzi
+ */
+public class MailFeedParser {
+
+    private final MimeTokenizer tokenizer = new MimeTokenizer();
+    private final Deque<MailEvent> open = new ArrayDeque<>();
+    private Classification classification;
+
+    /**
+     * Appends the remaining bytes of buffer (heap or direct) to the message. The buffer is consumed: its position is moved to its limit
+     *
+     * @param buffer received bytes
+     */
+    public void feed(ByteBuffer buffer) {
+
+        if (buffer == null) {
+            throw new MailParserException("Invalid buffer");
+        }
+
+        if (this.tokenizer.isFinished()) {
+            throw new MailParserException("Parser already finished");
+        }
+
+        this.tokenizer.feed(buffer);
+    }
+
+    /**
+     * Signals the end of the message: the remaining events can be polled
+     */
+    public void finish() {
+        this.tokenizer.finish();
+    }
+
+    /**
+     * Next event
+     *
+     * @return next event, null if more input is needed or the message is complete
+     */
+    public MailEvent poll() {
+        var event = this.tokenizer.next();
+
+        if (event == null) {
+            return null;
+        }
+
+        if (event.getType() == MailEventType.START_MESSAGE || event.getType() == MailEventType.START_PART) {
+            this.open.push(event);
+
+        } else if (event.getType() == MailEventType.END_PART || event.getType() == MailEventType.END_MESSAGE) {
+            this.open.poll();
+        }
+
+        return event;
+    }
+
+    /**
+     * Skips the remaining content of the innermost entity (message or part) still open after the last polled event.<br>
+     * Its body and its nested parts produce no more events, its end event is still returned.
+     */
+    public void skipPart() {
+        var target = this.open.peek();
+
+        if (target != null) {
+            this.tokenizer.skip(target.getEntityId(), target.getDepth());
+        }
+    }
+
+    /**
+     * Classification of the message, available as soon as its header block has been polled: a PEC or a PEC receipt is recognized before its body is received
+     *
+     * @return {@link Classification}, null if the header block has not been read yet
+     */
+    public Classification getClassification() {
+
+        if (this.classification == null && this.tokenizer.getMessageHeaders() != null) {
+            this.classification = PECHandler.classify(this.tokenizer.getMessageHeaders());
+        }
+
+        return this.classification;
+    }
+
+    /**
+     * @return true if the message is complete and every event has been polled
+     */
+    public boolean isDone() {
+        return this.tokenizer.isDone();
+    }
+}
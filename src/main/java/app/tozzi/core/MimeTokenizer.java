@@ -0,0 +1,505 @@
+package app.tozzi.core;
+
+import app.tozzi.model.MailEvent;
+import app.tozzi.model.MailEventType;
+import app.tozzi.model.exception.MailParserException;
+import app.tozzi.util.MimeMessageUtils;
+import app.tozzi.util.MimeTypesUtil;
+import app.tozzi.util.PECConstants;
+import app.tozzi.util.TransferDecoder;
+import jakarta.mail.Header;
+import jakarta.mail.internet.ContentDisposition;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeUtility;
+import jakarta.mail.internet.ParseException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Incremental, line oriented MIME tokenizer.<br>
+ * Bytes are fed as they arrive and events are produced on demand: memory is bounded by the longest line and the largest header block, never by the message size.
+ *
+ * @author Biagio Tozzi
+ */
+final class MimeTokenizer {
+
+    private static final int MAX_LINE_LENGTH = 8 * 1024;
+    private static final int MAX_HEADER_BLOCK_SIZE = 256 * 1024;
+
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String CONTENT_DISPOSITION = "Content-Disposition";
+    private static final String CONTENT_TRANSFER_ENCODING = "Content-Transfer-Encoding";
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private byte[] input = new byte[2 * MAX_LINE_LENGTH];
+    private int inputStart;
+    private int inputEnd;
+    private boolean finished;
+    private boolean done;
+    private boolean midLine;
+
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    private final Deque<MailEvent> events = new ArrayDeque<>();
+    // grown when a quoted-printable decoder releases the spaces held back from previous pieces of a long line
+    private byte[] chunk = new byte[MAX_LINE_LENGTH + 8];
+    private int nextEntityId;
+    private InternetHeaders messageHeaders;
+
+    MimeTokenizer() {
+        this.frames.push(new Frame(this.nextEntityId++, Frame.Kind.MESSAGE, 0, false, false));
+    }
+
+    /**
+     * Appends bytes to the input
+     */
+    void feed(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, this.input, this.inputEnd, len);
+        this.inputEnd += len;
+    }
+
+    /**
+     * Appends the remaining bytes of buffer to the input
+     */
+    void feed(ByteBuffer buffer) {
+        var len = buffer.remaining();
+        ensureCapacity(len);
+        buffer.get(this.input, this.inputEnd, len);
+        this.inputEnd += len;
+    }
+
+    /**
+     * Signals the end of the input
+     */
+    void finish() {
+        this.finished = true;
+    }
+
+    boolean isFinished() {
+        return this.finished;
+    }
+
+    /**
+     * Headers of the top level message
+     *
+     * @return headers, null until the header block of the message has been tokenized
+     */
+    InternetHeaders getMessageHeaders() {
+        return this.messageHeaders;
+    }
+
+    boolean isDone() {
+        return this.done && this.events.isEmpty();
+    }
+
+    /**
+     * Next event
+     *
+     * @return next event, null if more input is needed or the message is complete
+     */
+    MailEvent next() {
+
+        while (this.events.isEmpty()) {
+
+            if (this.done || !step()) {
+                return null;
+            }
+        }
+
+        return this.events.poll();
+    }
+
+    /**
+     * Skips the remaining content of the entity entityId: its descendants and its body produce no more events, its end event is still emitted
+     */
+    void skip(int entityId, int depth) {
+
+        for (var it = this.events.iterator(); it.hasNext(); ) {
+            var event = it.next();
+            var end = event.getType() == MailEventType.END_PART || event.getType() == MailEventType.END_MESSAGE;
+
+            if (end && event.getEntityId() == entityId) {
+                return;
+            }
+
+            if (event.getDepth() > depth || event.getEntityId() == entityId) {
+                it.remove();
+            }
+        }
+
+        for (var frame : this.frames) {
+            frame.skip = true;
+
+            if (frame.id == entityId) {
+                frame.skipRoot = true;
+                return;
+            }
+        }
+    }
+
+    private void ensureCapacity(int len) {
+
+        if (this.inputEnd + len <= this.input.length) {
+            return;
+        }
+
+        var pending = this.inputEnd - this.inputStart;
+        if (pending + len > this.input.length) {
+            this.input = Arrays.copyOfRange(this.input, this.inputStart, this.inputStart + Math.max(this.input.length * 2, pending + len));
+
+        } else {
+            System.arraycopy(this.input, this.inputStart, this.input, 0, pending);
+        }
+
+        this.inputStart = 0;
+        this.inputEnd = pending;
+    }
+
+    private boolean step() {
+        var available = this.inputEnd - this.inputStart;
+        var newline = indexOfNewline(this.inputStart, Math.min(this.inputEnd, this.inputStart + MAX_LINE_LENGTH));
+
+        if (newline >= 0) {
+            var contentEnd = newline > this.inputStart && this.input[newline - 1] == '\r' ? newline - 1 : newline;
+            line(this.inputStart, contentEnd, newline + 1, true);
+            this.inputStart = newline + 1;
+            this.midLine = false;
+
+        } else if (available >= MAX_LINE_LENGTH) {
+            var pieceEnd = this.inputStart + MAX_LINE_LENGTH;
+            if (this.input[pieceEnd - 1] == '\r') {
+                pieceEnd--;
+            }
+            line(this.inputStart, pieceEnd, pieceEnd, false);
+            this.inputStart = pieceEnd;
+            this.midLine = true;
+
+        } else if (this.finished) {
+
+            if (available == 0) {
+                while (!this.frames.isEmpty()) {
+                    close(this.frames.pop());
+                }
+                this.done = true;
+
+            } else {
+                line(this.inputStart, this.inputEnd, this.inputEnd, true);
+                this.inputStart = this.inputEnd;
+                this.midLine = false;
+            }
+
+        } else {
+            return false;
+        }
+
+        return true;
+    }
+
+    private int indexOfNewline(int from, int to) {
+
+        for (var i = from; i < to; i++) {
+            if (this.input[i] == '\n') {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private void line(int start, int end, int terminatorEnd, boolean complete) {
+
+        if (!this.midLine && complete && end - start >= 2 && this.input[start] == '-' && this.input[start + 1] == '-') {
+
+            for (var frame : this.frames) {
+
+                if (frame.boundary != null && frame.state != Frame.State.EPILOGUE) {
+                    var match = matchBoundary(frame.boundary, start, end);
+
+                    if (match != 0) {
+                        boundary(frame, match > 0);
+                        return;
+                    }
+                }
+            }
+        }
+
+        var frame = this.frames.peek();
+        if (frame == null) {
+            return;
+        }
+
+        switch (frame.state) {
+            case HEADERS -> header(frame, start, end, terminatorEnd, complete);
+            case BODY -> body(frame, start, end, terminatorEnd, complete);
+            default -> {
+                // preamble and epilogue are ignored
+            }
+        }
+    }
+
+    /**
+     * @return 1 for a delimiter, -1 for a close delimiter, 0 if the line is not a boundary of the frame
+     */
+    private int matchBoundary(byte[] boundary, int start, int end) {
+
+        if (end - start < boundary.length) {
+            return 0;
+        }
+
+        for (var i = 0; i < boundary.length; i++) {
+            if (this.input[start + i] != boundary[i]) {
+                return 0;
+            }
+        }
+
+        var i = start + boundary.length;
+        var close = end - i >= 2 && this.input[i] == '-' && this.input[i + 1] == '-';
+        if (close) {
+            i += 2;
+        }
+
+        for (; i < end; i++) {
+            if (this.input[i] != ' ' && this.input[i] != '\t') {
+                return 0;
+            }
+        }
+
+        return close ? -1 : 1;
+    }
+
+    private void boundary(Frame multipart, boolean delimiter) {
+
+        while (this.frames.peek() != multipart) {
+            close(this.frames.pop());
+        }
+
+        if (delimiter) {
+            multipart.state = Frame.State.CHILDREN;
+            this.frames.push(new Frame(this.nextEntityId++, Frame.Kind.PART, multipart.depth + 1, multipart.pec, multipart.skip));
+
+        } else {
+            multipart.state = Frame.State.EPILOGUE;
+        }
+    }
+
+    private void header(Frame frame, int start, int end, int terminatorEnd, boolean complete) {
+
+        if (!this.midLine && complete && start == end) {
+            open(frame);
+            enterBody(frame);
+            return;
+        }
+
+        if (frame.headerBlock.size() + terminatorEnd - start > MAX_HEADER_BLOCK_SIZE) {
+            throw new MailParserException("Header block exceeds " + MAX_HEADER_BLOCK_SIZE + " bytes");
+        }
+
+        frame.headerBlock.write(this.input, start, terminatorEnd - start);
+    }
+
+    private void open(Frame frame) {
+        InternetHeaders headers = MimeMessageUtils.loadHeaders(new ByteArrayInputStream(frame.headerBlock.toByteArray()));
+        frame.headerBlock = null;
+
+        var contentType = contentType(MimeMessageUtils.getHeader(headers, CONTENT_TYPE));
+        var disposition = contentDisposition(MimeMessageUtils.getHeader(headers, CONTENT_DISPOSITION));
+        var encoding = MimeMessageUtils.getHeader(headers, CONTENT_TRANSFER_ENCODING);
+
+        frame.contentType = contentType.getBaseType().toLowerCase();
+        frame.boundaryValue = contentType.getParameter("boundary");
+        frame.encoding = encoding != null ? encoding.trim().toLowerCase() : null;
+        frame.disposition = disposition != null ? disposition.getDisposition() : null;
+
+        var fileName = disposition != null ? disposition.getParameter("filename") : null;
+        if (fileName == null) {
+            fileName = contentType.getParameter("name");
+        }
+        frame.fileName = fileName != null ? MimeMessageUtils.decodeText(fileName) : null;
+
+        if (frame.kind == Frame.Kind.MESSAGE && frame.depth == 0) {
+            this.messageHeaders = headers;
+            frame.pec = MimeMessageUtils.getHeader(headers, PECConstants.X_TRASPORTO) != null || MimeMessageUtils.getHeader(headers, PECConstants.X_RICEVUTA) != null;
+        }
+
+        emit(frame, entityEvent(frame, frame.kind == Frame.Kind.MESSAGE ? MailEventType.START_MESSAGE : MailEventType.START_PART));
+
+        var allHeaders = headers.getAllHeaders();
+        while (allHeaders.hasMoreElements()) {
+            Header header = allHeaders.nextElement();
+            emit(frame, MailEvent.builder().type(MailEventType.HEADER).entityId(frame.id).depth(frame.depth)
+                    .headerName(header.getName()).headerValue(header.getValue() != null ? MimeUtility.unfold(header.getValue()) : null).build());
+        }
+
+        if (frame.kind == Frame.Kind.PART && frame.pec) {
+            var root = this.frames.peekLast();
+
+            if (!root.postaCertFound && PECConstants.POSTACERT_EML_NAME.equalsIgnoreCase(frame.fileName) && MimeTypesUtil.CONTENT_TYPE_MESSAGE_RFC822.equals(frame.contentType)) {
+                root.postaCertFound = true;
+                emit(frame, entityEvent(frame, MailEventType.PEC_POSTACERT));
+
+            } else if (!root.datiCertFound && PECConstants.DATICERT_XML_NAME.equalsIgnoreCase(frame.fileName) && MimeTypesUtil.CONTENT_TYPE_APPLICATION_XML.equals(frame.contentType)) {
+                root.datiCertFound = true;
+                emit(frame, entityEvent(frame, MailEventType.PEC_DATICERT));
+            }
+        }
+    }
+
+    private void enterBody(Frame frame) {
+
+        if (frame.contentType.startsWith("multipart/") && frame.boundaryValue != null) {
+            frame.boundary = ("--" + frame.boundaryValue).getBytes(StandardCharsets.US_ASCII);
+            frame.state = Frame.State.PREAMBLE;
+
+        } else if (MimeTypesUtil.CONTENT_TYPE_MESSAGE_RFC822.equals(frame.contentType) && isIdentity(frame.encoding)) {
+            frame.state = Frame.State.CHILDREN;
+            this.frames.push(new Frame(this.nextEntityId++, Frame.Kind.MESSAGE, frame.depth + 1, false, frame.skip));
+
+        } else {
+            frame.state = Frame.State.BODY;
+            frame.decoder = TransferDecoder.of(frame.encoding);
+        }
+    }
+
+    private void body(Frame frame, int start, int end, int terminatorEnd, boolean complete) {
+
+        if (frame.skip) {
+            return;
+        }
+
+        // the terminator of a line is decoded with the next line: the one before a boundary belongs to the boundary
+        var length = frame.pendingNewline > 0 ? decode(frame, CRLF, 2 - frame.pendingNewline, 2, 0) : 0;
+        length = decode(frame, this.input, start, end, length);
+        frame.pendingNewline = complete ? terminatorEnd - end : 0;
+        emitChunk(frame, length);
+    }
+
+    /**
+     * Decodes src[from, to) into the chunk starting from outPos, copying it if the part has no transfer encoding
+     *
+     * @return new output position
+     */
+    private int decode(Frame frame, byte[] src, int from, int to, int outPos) {
+
+        if (frame.decoder == null) {
+            System.arraycopy(src, from, this.chunk, outPos, to - from);
+            return outPos + to - from;
+        }
+
+        var capacity = outPos + frame.decoder.maxDecodedLength(to - from);
+        if (capacity > this.chunk.length) {
+            this.chunk = Arrays.copyOf(this.chunk, Math.max(capacity, 2 * this.chunk.length));
+        }
+
+        return frame.decoder.decode(src, from, to, this.chunk, outPos);
+    }
+
+    private void close(Frame frame) {
+
+        if (frame.state == Frame.State.HEADERS) {
+            open(frame);
+
+        } else if (frame.state == Frame.State.BODY && !frame.skip && frame.decoder != null) {
+            emitChunk(frame, frame.decoder.finish(this.chunk, 0));
+        }
+
+        if (!frame.skip || frame.skipRoot) {
+            this.events.add(MailEvent.builder().type(frame.kind == Frame.Kind.MESSAGE ? MailEventType.END_MESSAGE : MailEventType.END_PART).entityId(frame.id).depth(frame.depth).build());
+        }
+    }
+
+    private void emitChunk(Frame frame, int length) {
+
+        if (length > 0) {
+            emit(frame, MailEvent.builder().type(MailEventType.BODY_CHUNK).entityId(frame.id).depth(frame.depth)
+                    .chunk(ByteBuffer.wrap(this.chunk, 0, length).asReadOnlyBuffer()).build());
+        }
+    }
+
+    private void emit(Frame frame, MailEvent event) {
+
+        if (!frame.skip) {
+            this.events.add(event);
+        }
+    }
+
+    private static boolean isIdentity(String encoding) {
+        return encoding == null || encoding.equals("7bit") || encoding.equals("8bit") || encoding.equals("binary");
+    }
+
+    private static MailEvent entityEvent(Frame frame, MailEventType type) {
+        return MailEvent.builder().type(type).entityId(frame.id).depth(frame.depth)
+                .contentType(frame.contentType).fileName(frame.fileName).disposition(frame.disposition).encoding(frame.encoding).build();
+    }
+
+    private static ContentType contentType(String value) {
+
+        if (value != null) {
+            try {
+                return new ContentType(value);
+
+            } catch (ParseException e) {
+                return new ContentType("application", "octet-stream", null);
+            }
+        }
+
+        return new ContentType("text", "plain", null);
+    }
+
+    private static ContentDisposition contentDisposition(String value) {
+
+        if (value != null) {
+            try {
+                return new ContentDisposition(value);
+
+            } catch (ParseException e) {
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    private static final class Frame {
+
+        enum Kind {MESSAGE, PART}
+
+        enum State {HEADERS, PREAMBLE, CHILDREN, EPILOGUE, BODY}
+
+        private final int id;
+        private final Kind kind;
+        private final int depth;
+        private boolean pec;
+        private boolean skip;
+        private boolean skipRoot;
+        private State state = State.HEADERS;
+        private ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+
+        private String contentType;
+        private String boundaryValue;
+        private byte[] boundary;
+        private String fileName;
+        private String disposition;
+        private String encoding;
+
+        private TransferDecoder decoder;
+        private int pendingNewline;
+
+        private boolean postaCertFound;
+        private boolean datiCertFound;
+
+        private Frame(int id, Kind kind, int depth, boolean pec, boolean skip) {
+            this.id = id;
+            this.kind = kind;
+            this.depth = depth;
+            this.pec = pec;
+            this.skip = skip;
+        }
+    }
+}
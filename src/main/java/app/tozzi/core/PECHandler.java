@@ -1,22 +1,29 @@
 package app.tozzi.core;
 
 import app.tozzi.model.CertificateData;
+import app.tozzi.model.Classification;
 import app.tozzi.model.Mail;
 import app.tozzi.model.PEC;
 import app.tozzi.model.PECReceipt;
+import app.tozzi.model.ParsedEntityType;
 import app.tozzi.model.exception.MailParserException;
+import app.tozzi.model.exception.ParseCancelledException;
+import app.tozzi.util.MailConstants;
 import app.tozzi.util.MimeMessageUtils;
 import app.tozzi.util.PECConstants;
 import app.tozzi.util.XMLUtils;
 import jakarta.activation.DataSource;
+import jakarta.mail.internet.InternetHeaders;
 import jakarta.mail.internet.MimeMessage;
+import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathExpressionException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 /**
  * PEC Management
@@ -25,12 +32,6 @@ import java.io.InputStream;
  */
 public class PECHandler {
 
-    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY;
-
-    static {
-        DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
-    }
-
     /**
      * Extracts PEC receipt from {@link PEC}
      *
@@ -38,13 +39,28 @@ public class PECHandler {
      * @return {@link PECReceipt}
      */
     public static PECReceipt loadReceipt(PEC pec) {
+        return loadReceipt(pec, new ParserContext(null), CancellationToken.create());
+    }
+
+    /**
+     * Extracts PEC receipt from {@link PEC}
+     *
+     * @param pec     {@link PEC}
+     * @param context {@link ParserContext}
+     * @param token   {@link CancellationToken}
+     * @return {@link PECReceipt}
+     */
+    public static PECReceipt loadReceipt(PEC pec, ParserContext context, CancellationToken token) {
 
         try {
             var pecReceipt = new PECReceipt();
             pecReceipt.setPec(pec);
-            pecReceipt.setCertificateData(loadCertificateData(pec.getDatiCert().getInputStream()));
+            pecReceipt.setCertificateData(loadCertificateData(pec.getDatiCert().getInputStream(), context, token));
             return pecReceipt;
 
+        } catch (ParseCancelledException e) {
+            throw e;
+
         } catch (Exception e) {
             throw new MailParserException("Error during PEC receipt processing", e);
         }
@@ -60,6 +76,21 @@ public class PECHandler {
      * @return {@link PEC}
      */
     public static PEC loadPEC(Mail originalMessage, Mail envelope, DataSource postaCert, DataSource datiCert, MimeMessage mimeMessage) {
+        return loadPEC(originalMessage, envelope, postaCert, datiCert, mimeMessage, new ParserContext(null), CancellationToken.create());
+    }
+
+    /**
+     * Extracts a {@link PEC}
+     *
+     * @param originalMessage original mail message
+     * @param envelope        PEC envelope
+     * @param postaCert       postaCert.eml stream
+     * @param datiCert        datiCert.xml stream
+     * @param context         {@link ParserContext}
+     * @param token           {@link CancellationToken}
+     * @return {@link PEC}
+     */
+    public static PEC loadPEC(Mail originalMessage, Mail envelope, DataSource postaCert, DataSource datiCert, MimeMessage mimeMessage, ParserContext context, CancellationToken token) {
 
         try {
             var pec = new PEC();
@@ -68,105 +99,200 @@ public class PECHandler {
             pec.setEnvelope(envelope);
             pec.setOriginalMessage(originalMessage);
             if (datiCert != null)
-                pec.setCertificateData(loadCertificateData(datiCert.getInputStream()));
-            pec.setTransportHeaderValue(MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_TRASPORTO));
-            pec.setReceiptHeaderValue(MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_RICEVUTA));
-            pec.setReceiptTypeHeaderValue(MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_TIPO_RICEVUTA));
-            pec.setSecurityCheckHeaderValue(MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_VERIFICA_SICUREZZA));
-            pec.setErrorHeaderValue(MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_TRASPORTO_ERRORE));
-            pec.setReferenceHeaderValue(MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_RIFERIMENTO));
+                pec.setCertificateData(loadCertificateData(datiCert.getInputStream(), context, token));
+            loadPECHeaders(pec, mimeMessage);
             return pec;
 
+        } catch (ParseCancelledException e) {
+            throw e;
+
         } catch (Exception e) {
             throw new MailParserException("Error during PEC processing", e);
         }
     }
 
+    /**
+     * Loads PEC transport headers into {@link PEC}
+     *
+     * @param pec         {@link PEC}
+     * @param mimeMessage PEC envelope
+     */
+    public static void loadPECHeaders(PEC pec, MimeMessage mimeMessage) {
+        pec.setTransportHeaderValue(MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_TRASPORTO));
+        pec.setReceiptHeaderValue(MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_RICEVUTA));
+        pec.setReceiptTypeHeaderValue(MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_TIPO_RICEVUTA));
+        pec.setSecurityCheckHeaderValue(MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_VERIFICA_SICUREZZA));
+        pec.setErrorHeaderValue(MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_TRASPORTO_ERRORE));
+        pec.setReferenceHeaderValue(MimeMessageUtils.getHeader(mimeMessage, PECConstants.X_RIFERIMENTO));
+    }
+
+    /**
+     * Classifies a mail message from its header block
+     *
+     * @param headers {@link InternetHeaders} of the message
+     * @return {@link Classification}
+     */
+    public static Classification classify(InternetHeaders headers) {
+        var xTranspHeader = MimeMessageUtils.getHeader(headers, PECConstants.X_TRASPORTO);
+        var xReceiptHeader = MimeMessageUtils.getHeader(headers, PECConstants.X_RICEVUTA);
+        var messageID = MimeMessageUtils.getHeader(headers, MailConstants.MESSAGE_ID);
+
+        return Classification.builder()
+                .type(xReceiptHeader != null ? ParsedEntityType.PEC_RECEIPT : xTranspHeader != null ? ParsedEntityType.PEC : ParsedEntityType.MAIL)
+                .messageID(messageID != null ? messageID.replaceAll("<", "").replaceAll(">", "").trim() : null)
+                .transportHeaderValue(xTranspHeader)
+                .receiptHeaderValue(xReceiptHeader)
+                .receiptTypeHeaderValue(MimeMessageUtils.getHeader(headers, PECConstants.X_TIPO_RICEVUTA))
+                .securityCheckHeaderValue(MimeMessageUtils.getHeader(headers, PECConstants.X_VERIFICA_SICUREZZA))
+                .errorHeaderValue(MimeMessageUtils.getHeader(headers, PECConstants.X_TRASPORTO_ERRORE))
+                .referenceHeaderValue(MimeMessageUtils.getHeader(headers, PECConstants.X_RIFERIMENTO))
+                .build();
+    }
+
     /**
      * Extracts datiCert.xml
      *
      * @param inputStream datiCert.xml stream
+     * @param context     {@link ParserContext}
+     * @param token       {@link CancellationToken}, checked before every lookup
      * @return {@link CertificateData}
-     * @throws ParserConfigurationException
      * @throws IOException
      * @throws SAXException
      * @throws XPathExpressionException
      */
-    static CertificateData loadCertificateData(InputStream inputStream) throws ParserConfigurationException, IOException, SAXException, XPathExpressionException {
-        var document = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder().parse(inputStream);
+    static CertificateData loadCertificateData(InputStream inputStream, ParserContext context, CancellationToken token) throws IOException, SAXException, XPathExpressionException {
+        return loadCertificateData(inputStream, context, token, null);
+    }
+
+    /**
+     * Extracts datiCert.xml collecting missing mandatory fields into errors instead of failing: the returned data is partial
+     *
+     * @param datiCert datiCert.xml
+     * @param context  {@link ParserContext}
+     * @param token    {@link CancellationToken}, checked before every lookup
+     * @param errors   missing mandatory fields
+     * @return {@link CertificateData}
+     */
+    public static CertificateData loadCertificateData(DataSource datiCert, ParserContext context, CancellationToken token, List<MailParserException> errors) {
+
+        try (var inputStream = datiCert.getInputStream()) {
+            return loadCertificateData(inputStream, context, token, errors);
+
+        } catch (IOException | SAXException | XPathExpressionException e) {
+            throw new MailParserException("Error reading datiCert.xml", e);
+        }
+    }
+
+    private static CertificateData loadCertificateData(InputStream inputStream, ParserContext context, CancellationToken token, List<MailParserException> errors) throws IOException, SAXException, XPathExpressionException {
+        token.throwIfCancelled();
+        var document = context.getDocumentBuilder().parse(inputStream);
         var certificateData = new CertificateData();
 
         // Sender
-        var sender = XMLUtils.getTextContent(document, PECConstants.DATICERT_MITTENTE_PATH);
+        var sender = getTextContent(document, PECConstants.DATICERT_MITTENTE_PATH, context, token);
         if (sender.isEmpty()) {
-            throw new MailParserException("Path " + PECConstants.DATICERT_MITTENTE_PATH + " must be not null");
+            missing("Path " + PECConstants.DATICERT_MITTENTE_PATH + " must be not null", errors);
+        } else {
+            certificateData.setSender(sender.get());
         }
-        certificateData.setSender(sender.get());
         // Answers
-        var answers = XMLUtils.getTextContent(document, PECConstants.DATICERT_RISPOSTE_PATH);
+        var answers = getTextContent(document, PECConstants.DATICERT_RISPOSTE_PATH, context, token);
         if (answers.isEmpty()) {
-            throw new MailParserException("Path " + PECConstants.DATICERT_RISPOSTE_PATH + " must be not null");
+            missing("Path " + PECConstants.DATICERT_RISPOSTE_PATH + " must be not null", errors);
+        } else {
+            certificateData.setAnswers(answers.get());
         }
-        certificateData.setAnswers(answers.get());
         // Answers
-        var issuer = XMLUtils.getTextContent(document, PECConstants.DATICERT_GESTORE_EMITTENTE_PATH);
+        var issuer = getTextContent(document, PECConstants.DATICERT_GESTORE_EMITTENTE_PATH, context, token);
         if (issuer.isEmpty()) {
-            throw new MailParserException("Path " + PECConstants.DATICERT_GESTORE_EMITTENTE_PATH + " must be not null");
+            missing("Path " + PECConstants.DATICERT_GESTORE_EMITTENTE_PATH + " must be not null", errors);
+        } else {
+            certificateData.setIssuer(issuer.get());
         }
-        certificateData.setIssuer(issuer.get());
         // Subject
-        XMLUtils.getTextContent(document, PECConstants.DATICERT_OGGETTO_PATH).ifPresent(certificateData::setSubject);
+        getTextContent(document, PECConstants.DATICERT_OGGETTO_PATH, context, token).ifPresent(certificateData::setSubject);
         // Recipients
-        var recipients = XMLUtils.getTextAndAttribute(document, PECConstants.DATICERT_DESTINATARI_PATH, PECConstants.DATICERT_DESTINATARI_TIPO_ATTRIBUTE);
+        var recipients = getTextAndAttribute(document, PECConstants.DATICERT_DESTINATARI_PATH, PECConstants.DATICERT_DESTINATARI_TIPO_ATTRIBUTE, context, token);
         if (recipients.isEmpty()) {
-            throw new MailParserException("Path and attribute " + PECConstants.DATICERT_DESTINATARI_PATH + ";" + PECConstants.DATICERT_DESTINATARI_TIPO_ATTRIBUTE + " must be not null");
+            missing("Path and attribute " + PECConstants.DATICERT_DESTINATARI_PATH + ";" + PECConstants.DATICERT_DESTINATARI_TIPO_ATTRIBUTE + " must be not null", errors);
+        } else {
+            certificateData.setRecipients(recipients.entrySet().stream().map(e -> CertificateData.PECRecipients.builder().address(e.getKey()).type(CertificateData.PECRecipients.PECRecipientType.from(e.getValue())).build()).toList());
         }
-        certificateData.setRecipients(recipients.entrySet().stream().map(e -> CertificateData.PECRecipients.builder().address(e.getKey()).type(CertificateData.PECRecipients.PECRecipientType.from(e.getValue())).build()).toList());
         // Date, hour and zone
-        var zone = XMLUtils.getAttribute(document, PECConstants.DATICERT_DATA_PATH, PECConstants.DATICERT_DATA_ZONA_ATTRIBUTE);
+        certificateData.setDate(new CertificateData.PECDate());
+        var zone = getAttribute(document, PECConstants.DATICERT_DATA_PATH, PECConstants.DATICERT_DATA_ZONA_ATTRIBUTE, context, token);
         if (zone.isEmpty()) {
-            throw new MailParserException("Path and attribute " + PECConstants.DATICERT_DATA_PATH + ";" + PECConstants.DATICERT_DATA_ZONA_ATTRIBUTE + " must be not null");
+            missing("Path and attribute " + PECConstants.DATICERT_DATA_PATH + ";" + PECConstants.DATICERT_DATA_ZONA_ATTRIBUTE + " must be not null", errors);
+        } else {
+            certificateData.getDate().setZone(zone.get());
         }
-        certificateData.setDate(new CertificateData.PECDate());
-        certificateData.getDate().setZone(zone.get());
-        var day = XMLUtils.getTextContent(document, PECConstants.DATICERT_DATA_GIORNO_PATH);
+        var day = getTextContent(document, PECConstants.DATICERT_DATA_GIORNO_PATH, context, token);
         if (day.isEmpty()) {
-            throw new MailParserException("Path " + PECConstants.DATICERT_DATA_GIORNO_PATH + " must be not null");
+            missing("Path " + PECConstants.DATICERT_DATA_GIORNO_PATH + " must be not null", errors);
+        } else {
+            certificateData.getDate().setDay(day.get());
         }
-        certificateData.getDate().setDay(day.get());
-        var hour = XMLUtils.getTextContent(document, PECConstants.DATICERT_DATA_ORA_PATH);
+        var hour = getTextContent(document, PECConstants.DATICERT_DATA_ORA_PATH, context, token);
         if (hour.isEmpty()) {
-            throw new MailParserException("Path " + PECConstants.DATICERT_DATA_ORA_PATH + " must be not null");
+            missing("Path " + PECConstants.DATICERT_DATA_ORA_PATH + " must be not null", errors);
+        } else {
+            certificateData.getDate().setHour(hour.get());
         }
-        certificateData.getDate().setHour(hour.get());
         // Receipt type
-        XMLUtils.getAttribute(document, PECConstants.DATICERT_RICEVUTA_PATH, PECConstants.DATICERT_RICEVUTA_TIPO_ATTRIBUTE).ifPresent(recType -> {
+        getAttribute(document, PECConstants.DATICERT_RICEVUTA_PATH, PECConstants.DATICERT_RICEVUTA_TIPO_ATTRIBUTE, context, token).ifPresent(recType -> {
             certificateData.setReceiptType(CertificateData.ReceiptType.from(recType));
         });
         // Error
-        var error = XMLUtils.getAttribute(document, PECConstants.DATICERT_POSTACERT_PATH, PECConstants.DATICERT_POSTACERT_ERRORE_ATTRIBUTE);
+        var error = getAttribute(document, PECConstants.DATICERT_POSTACERT_PATH, PECConstants.DATICERT_POSTACERT_ERRORE_ATTRIBUTE, context, token);
         if (error.isEmpty()) {
-            throw new MailParserException("Path and attribute " + PECConstants.DATICERT_POSTACERT_PATH + ";" + PECConstants.DATICERT_POSTACERT_ERRORE_ATTRIBUTE + " must be not null");
+            missing("Path and attribute " + PECConstants.DATICERT_POSTACERT_PATH + ";" + PECConstants.DATICERT_POSTACERT_ERRORE_ATTRIBUTE + " must be not null", errors);
+        } else {
+            certificateData.setError(CertificateData.PECError.from(error.get()));
         }
-        certificateData.setError(CertificateData.PECError.from(error.get()));
         // Extended error
-        XMLUtils.getTextContent(document, PECConstants.DATICERT_ERRORE_ESTESO_PATH).ifPresent(certificateData::setExtendedError);
+        getTextContent(document, PECConstants.DATICERT_ERRORE_ESTESO_PATH, context, token).ifPresent(certificateData::setExtendedError);
         // Delivery
-        XMLUtils.getTextContent(document, PECConstants.DATICERT_CONSEGNA_PATH).ifPresent(certificateData::setDelivery);
+        getTextContent(document, PECConstants.DATICERT_CONSEGNA_PATH, context, token).ifPresent(certificateData::setDelivery);
         // Receiving
-        XMLUtils.getTextContent(document, PECConstants.DATICERT_RICEZIONE_PATH).ifPresent(certificateData::setReceiving);
+        getTextContent(document, PECConstants.DATICERT_RICEZIONE_PATH, context, token).ifPresent(certificateData::setReceiving);
         // Message ID
-        XMLUtils.getTextContent(document, PECConstants.DATICERT_MESSAGE_ID_PATH).ifPresent(certificateData::setMessageID);
+        getTextContent(document, PECConstants.DATICERT_MESSAGE_ID_PATH, context, token).ifPresent(certificateData::setMessageID);
         // ID
-        XMLUtils.getTextContent(document, PECConstants.DATICERT_IDENTIFICATIVO_PATH).ifPresent(certificateData::setId);
+        getTextContent(document, PECConstants.DATICERT_IDENTIFICATIVO_PATH, context, token).ifPresent(certificateData::setId);
         // Type
-        var type = XMLUtils.getAttribute(document, PECConstants.DATICERT_POSTACERT_PATH, PECConstants.DATICERT_IDENTIFICATIVO_TIPO_ATTRIBUTE);
+        var type = getAttribute(document, PECConstants.DATICERT_POSTACERT_PATH, PECConstants.DATICERT_IDENTIFICATIVO_TIPO_ATTRIBUTE, context, token);
         if (type.isEmpty()) {
-            throw new MailParserException("Path and attribute " + PECConstants.DATICERT_POSTACERT_PATH + ";" + PECConstants.DATICERT_IDENTIFICATIVO_TIPO_ATTRIBUTE + " must be not null");
+            missing("Path and attribute " + PECConstants.DATICERT_POSTACERT_PATH + ";" + PECConstants.DATICERT_IDENTIFICATIVO_TIPO_ATTRIBUTE + " must be not null", errors);
+        } else {
+            certificateData.setType(CertificateData.PostaCertType.from(type.get()));
         }
-        certificateData.setType(CertificateData.PostaCertType.from(type.get()));
 
         return certificateData;
     }
 
+    private static void missing(String message, List<MailParserException> errors) {
+        var e = new MailParserException(message);
+
+        if (errors == null) {
+            throw e;
+        }
+
+        errors.add(e);
+    }
+
+    private static Optional<String> getTextContent(Document document, String path, ParserContext context, CancellationToken token) throws XPathExpressionException {
+        token.throwIfCancelled();
+        return XMLUtils.getTextContent(document, context.compile(path));
+    }
+
+    private static Optional<String> getAttribute(Document document, String path, String attribute, ParserContext context, CancellationToken token) throws XPathExpressionException {
+        token.throwIfCancelled();
+        return XMLUtils.getAttribute(document, context.compile(path), attribute);
+    }
+
+    private static Map<String, String> getTextAndAttribute(Document document, String path, String attribute, ParserContext context, CancellationToken token) throws XPathExpressionException {
+        token.throwIfCancelled();
+        return XMLUtils.getTextAndAttribute(document, context.compile(path), attribute);
+    }
+
 }
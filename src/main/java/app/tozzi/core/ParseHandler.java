@@ -0,0 +1,63 @@
+package app.tozzi.core;
+
+import app.tozzi.model.Attachment;
+import app.tozzi.model.CertificateData;
+import app.tozzi.model.Mail;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Push-style callback used by {@link app.tozzi.MailParser#parse(java.io.InputStream, ParseHandler)}.<br>
+ * Contents are handed over as streams while the message is walked, instead of being collected into the {@link Mail}.
+ * Streams are valid only during the callback.
+ * <p>
+ * For a PEC, the envelope is notified first, then the original message (postacert.eml) and finally the certificate data.
+ *
+ * @author Biagio Tozzi
+ */
+public interface ParseHandler {
+
+    /**
+     * Headers and addresses of a message (the envelope or, for a PEC, the original message)
+     *
+     * @param mail {@link Mail} with headers only
+     */
+    default void onHeaders(Mail mail) throws IOException {
+    }
+
+    /**
+     * Text body
+     *
+     * @param body    decoded body stream
+     * @param charset charset declared by the part, null if missing
+     */
+    default void onBodyTXT(InputStream body, String charset) throws IOException {
+    }
+
+    /**
+     * HTML body. It can be notified more than once when the message has several HTML parts
+     *
+     * @param body    decoded body stream
+     * @param charset charset declared by the part, null if missing
+     */
+    default void onBodyHTML(InputStream body, String charset) throws IOException {
+    }
+
+    /**
+     * Attachment
+     *
+     * @param attachment {@link Attachment} metadata, without data source
+     * @param content    decoded attachment stream
+     */
+    default void onAttachment(Attachment attachment, InputStream content) throws IOException {
+    }
+
+    /**
+     * PEC certificate data (daticert.xml)
+     *
+     * @param certificateData {@link CertificateData}
+     */
+    default void onCertificateData(CertificateData certificateData) throws IOException {
+    }
+}
@@ -0,0 +1,149 @@
+package app.tozzi.core;
+
+import app.tozzi.model.exception.MailParserException;
+import app.tozzi.util.IOUtils;
+import jakarta.mail.Session;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Parsing infrastructure reused across messages: mail {@link Session}, {@link DocumentBuilder}, compiled XPath expressions, charset decoders and scratch buffers.<br>
+ * A context is not thread-safe: {@link app.tozzi.MailParser} keeps one per thread and set of mail properties, shared by its instances. Every resource is created on first use.
+ *
+ * @author Biagio Tozzi
+ */
+public final class ParserContext {
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+
+    private final Properties properties;
+    private Session session;
+    private DocumentBuilder documentBuilder;
+    private XPath xPath;
+    private final Map<String, XPathExpression> expressions = new HashMap<>();
+    private ByteBuffer scratchBuffer;
+    private CharBuffer charBuffer;
+    private final Map<Charset, CharsetDecoder> decoders = new HashMap<>();
+
+    /**
+     * @param properties mail session properties, System properties if null
+     */
+    public ParserContext(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Dedicated mail session, never shared with {@link Session#getDefaultInstance(Properties)}
+     *
+     * @return {@link Session}
+     */
+    public Session getSession() {
+
+        if (this.session == null) {
+            this.session = Session.getInstance(this.properties != null ? this.properties : System.getProperties());
+        }
+
+        return this.session;
+    }
+
+    /**
+     * Document builder, reset before being returned
+     *
+     * @return {@link DocumentBuilder}
+     */
+    public DocumentBuilder getDocumentBuilder() {
+
+        if (this.documentBuilder == null) {
+            try {
+                synchronized (DOCUMENT_BUILDER_FACTORY) {
+                    this.documentBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+                }
+
+            } catch (ParserConfigurationException e) {
+                throw new MailParserException("Error creating document builder", e);
+            }
+
+        } else {
+            this.documentBuilder.reset();
+        }
+
+        return this.documentBuilder;
+    }
+
+    /**
+     * Compiled XPath expression, cached by path
+     *
+     * @param path XPath
+     * @return {@link XPathExpression}
+     * @throws XPathExpressionException
+     */
+    public XPathExpression compile(String path) throws XPathExpressionException {
+        var expression = this.expressions.get(path);
+
+        if (expression == null) {
+
+            if (this.xPath == null) {
+                this.xPath = XPathFactory.newInstance().newXPath();
+            }
+
+            expression = this.xPath.compile(path);
+            this.expressions.put(path, expression);
+        }
+
+        return expression;
+    }
+
+    /**
+     * Direct scratch buffer for stream copies, cleared before being returned
+     *
+     * @return {@link ByteBuffer}
+     */
+    public ByteBuffer getScratchBuffer() {
+
+        if (this.scratchBuffer == null) {
+            this.scratchBuffer = ByteBuffer.allocateDirect(IOUtils.BUFFER_SIZE);
+        }
+
+        return this.scratchBuffer.clear();
+    }
+
+    /**
+     * Scratch buffer for text decoding, cleared before being returned
+     *
+     * @return {@link CharBuffer}
+     */
+    public CharBuffer getCharBuffer() {
+
+        if (this.charBuffer == null) {
+            this.charBuffer = CharBuffer.allocate(IOUtils.BUFFER_SIZE);
+        }
+
+        return this.charBuffer.clear();
+    }
+
+    /**
+     * Decoder of a charset, cached by charset and reset before being returned. Malformed and unmappable input is replaced, as by {@link String#String(byte[], Charset)}
+     *
+     * @param charset {@link Charset}
+     * @return {@link CharsetDecoder}
+     */
+    public CharsetDecoder getDecoder(Charset charset) {
+        return this.decoders.computeIfAbsent(charset, c -> c.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)).reset();
+    }
+}
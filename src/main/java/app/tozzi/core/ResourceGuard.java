@@ -0,0 +1,195 @@
+package app.tozzi.core;
+
+import app.tozzi.model.ResourceBudget;
+import app.tozzi.model.exception.ResourceLimitExceededException;
+import app.tozzi.util.IOUtils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enforces a {@link ResourceBudget} and a {@link CancellationToken} during the traversal of a single message, embedded messages included.<br>
+ * The traversal methods must be called by a single thread, byte accounting can also be done by attachment decoding tasks.
+ *
+ * @author Biagio Tozzi
+ */
+public final class ResourceGuard {
+
+    private final ResourceBudget budget;
+    private final CancellationToken token;
+    private int depth;
+    private int parts;
+    private final AtomicLong messageBytes = new AtomicLong();
+
+    public ResourceGuard(ResourceBudget budget) {
+        this(budget, null);
+    }
+
+    public ResourceGuard(ResourceBudget budget, CancellationToken token) {
+        this.budget = budget != null ? budget : ResourceBudget.unlimited();
+        this.token = token != null ? token : CancellationToken.create();
+    }
+
+    public CancellationToken getToken() {
+        return this.token;
+    }
+
+    /**
+     * Enters a MIME part or an embedded message
+     *
+     * @throws ResourceLimitExceededException if the maximum depth or part count is exceeded
+     * @throws app.tozzi.model.exception.ParseCancelledException if the parse is cancelled
+     */
+    public void enter() {
+        this.token.throwIfCancelled();
+        this.depth++;
+        this.parts++;
+
+        if (this.budget.getMaxDepth() > 0 && this.depth > this.budget.getMaxDepth()) {
+            throw new ResourceLimitExceededException(ResourceLimitExceededException.Limit.DEPTH, this.budget.getMaxDepth());
+        }
+
+        if (this.budget.getMaxParts() > 0 && this.parts > this.budget.getMaxParts()) {
+            throw new ResourceLimitExceededException(ResourceLimitExceededException.Limit.PARTS, this.budget.getMaxParts());
+        }
+    }
+
+    /**
+     * Enters a MIME part without nesting into it: used by iterative traversals, which track the level of every part themselves
+     *
+     * @param level nesting level of the part inside the current message, 1 for the message itself
+     * @throws ResourceLimitExceededException if the maximum depth or part count is exceeded
+     * @throws app.tozzi.model.exception.ParseCancelledException if the parse is cancelled
+     */
+    public void enter(int level) {
+        this.token.throwIfCancelled();
+        this.parts++;
+
+        if (this.budget.getMaxDepth() > 0 && this.depth + level > this.budget.getMaxDepth()) {
+            throw new ResourceLimitExceededException(ResourceLimitExceededException.Limit.DEPTH, this.budget.getMaxDepth());
+        }
+
+        if (this.budget.getMaxParts() > 0 && this.parts > this.budget.getMaxParts()) {
+            throw new ResourceLimitExceededException(ResourceLimitExceededException.Limit.PARTS, this.budget.getMaxParts());
+        }
+    }
+
+    /**
+     * Leaves the current MIME part or embedded message
+     */
+    public void exit() {
+        this.depth--;
+    }
+
+    /**
+     * Checks the header count of a message or part
+     *
+     * @param count number of headers
+     * @throws ResourceLimitExceededException if the maximum header count is exceeded
+     */
+    public void checkHeaders(int count) {
+
+        if (this.budget.getMaxHeaders() > 0 && count > this.budget.getMaxHeaders()) {
+            throw new ResourceLimitExceededException(ResourceLimitExceededException.Limit.HEADERS, this.budget.getMaxHeaders());
+        }
+    }
+
+    /**
+     * Accounts decoded body bytes
+     *
+     * @param bytes decoded bytes
+     * @throws ResourceLimitExceededException if the maximum message size is exceeded
+     */
+    public void addBodyBytes(long bytes) {
+        this.token.throwIfCancelled();
+        var messageBytes = this.messageBytes.addAndGet(bytes);
+
+        if (this.budget.getMaxMessageBytes() > 0 && messageBytes > this.budget.getMaxMessageBytes()) {
+            throw new ResourceLimitExceededException(ResourceLimitExceededException.Limit.MESSAGE_BYTES, this.budget.getMaxMessageBytes());
+        }
+    }
+
+    /**
+     * Accounts the whole decoded size of an attachment
+     *
+     * @param bytes decoded bytes
+     * @throws ResourceLimitExceededException if the maximum attachment or message size is exceeded
+     */
+    public void addAttachmentBytes(long bytes) {
+
+        if (this.budget.getMaxAttachmentBytes() > 0 && bytes > this.budget.getMaxAttachmentBytes()) {
+            throw new ResourceLimitExceededException(ResourceLimitExceededException.Limit.ATTACHMENT_BYTES, this.budget.getMaxAttachmentBytes());
+        }
+
+        addBodyBytes(bytes);
+    }
+
+    /**
+     * Listener accounting the bytes of an attachment while it is copied: the copy is aborted as soon as a limit is exceeded
+     *
+     * @return {@link IOUtils.CopyListener}
+     */
+    public IOUtils.CopyListener attachmentListener() {
+        var counter = new long[1];
+
+        return chunk -> {
+            counter[0] += chunk.remaining();
+            checkAttachment(counter[0], chunk.remaining());
+        };
+    }
+
+    /**
+     * Wraps a decoded body or attachment stream, accounting its bytes while they are read
+     *
+     * @param inputStream decoded stream
+     * @param attachment  true if the stream is an attachment, subject to the attachment limit
+     * @return {@link InputStream}
+     */
+    public InputStream stream(InputStream inputStream, boolean attachment) {
+
+        return new FilterInputStream(inputStream) {
+
+            private long count;
+
+            @Override
+            public int read() throws IOException {
+                var b = super.read();
+                if (b >= 0) {
+                    account(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                var n = super.read(b, off, len);
+                if (n > 0) {
+                    account(n);
+                }
+                return n;
+            }
+
+            private void account(int n) {
+                this.count += n;
+
+                if (attachment) {
+                    checkAttachment(this.count, n);
+
+                } else {
+                    addBodyBytes(n);
+                }
+            }
+        };
+    }
+
+    private void checkAttachment(long attachmentBytes, long read) {
+
+        if (this.budget.getMaxAttachmentBytes() > 0 && attachmentBytes > this.budget.getMaxAttachmentBytes()) {
+            throw new ResourceLimitExceededException(ResourceLimitExceededException.Limit.ATTACHMENT_BYTES, this.budget.getMaxAttachmentBytes());
+        }
+
+        addBodyBytes(read);
+    }
+}
@@ -1,9 +1,18 @@
 package app.tozzi.model;
 
+import app.tozzi.model.exception.MailParserException;
+import app.tozzi.util.IOUtils;
 import jakarta.activation.DataSource;
 import lombok.Builder;
 import lombok.Data;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
 /**
  * Mail/PEC Attachment
  *
@@ -14,9 +23,69 @@ import lombok.Data;
 public class Attachment {
 
     private String name;
+    private String contentType;
     private DataSource dataSource;
     private String contentID;
     private String xAttachmentID;
     private boolean inline;
 
+    /**
+     * Content transfer encoding of the part (e.g. base64, quoted-printable), null if absent
+     */
+    private String contentTransferEncoding;
+
+    /**
+     * Size of the raw (encoded) content, -1 if unknown
+     */
+    private long rawSize;
+
+    /**
+     * Size of the decoded content, -1 if unknown. Computed without decoding when the content is not extracted
+     */
+    private long decodedSize;
+
+    /**
+     * True if {@link #decodedSize} is exact, false if it is an estimate (e.g. content not decoded)
+     */
+    private boolean decodedSizeExact;
+
+    /**
+     * Hex encoded digests of the decoded content by algorithm, computed while the attachment is extracted (see {@link ParseOptions#getDigestAlgorithms()})
+     */
+    private Map<String, String> digests;
+
+    /**
+     * Writes the decoded content to a file, created or truncated, without going through the heap when the content is file-backed or sliced from a mapped source
+     *
+     * @param path target file
+     * @return number of bytes written
+     * @throws IOException
+     */
+    public long writeTo(Path path) throws IOException {
+
+        // checked before the target is created or truncated
+        if (this.dataSource == null) {
+            throw new MailParserException("Attachment content not extracted: " + this.name);
+        }
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return writeTo(channel);
+        }
+    }
+
+    /**
+     * Writes the decoded content to a channel, without going through the heap when the content is file-backed or sliced from a mapped source
+     *
+     * @param channel target channel, not closed
+     * @return number of bytes written
+     * @throws IOException
+     */
+    public long writeTo(WritableByteChannel channel) throws IOException {
+
+        if (this.dataSource == null) {
+            throw new MailParserException("Attachment content not extracted: " + this.name);
+        }
+
+        return IOUtils.transferTo(this.dataSource, channel);
+    }
 }
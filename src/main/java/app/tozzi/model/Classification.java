@@ -0,0 +1,25 @@
+package app.tozzi.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Header-only classification of a mail message
+ *
+ * @author Biagio Tozzi
+ */
+@Data
+@Builder
+public class Classification {
+
+    private ParsedEntityType type;
+    private String messageID;
+
+    private String errorHeaderValue;
+    private String transportHeaderValue;
+    private String receiptHeaderValue;
+    private String securityCheckHeaderValue;
+    private String receiptTypeHeaderValue;
+    private String referenceHeaderValue;
+
+}
@@ -0,0 +1,53 @@
+package app.tozzi.model;
+
+import java.util.List;
+
+/**
+ * {@link Mail} whose bodies, attachments and delivery status are resolved on first access
+ *
+ * @author Biagio Tozzi
+ */
+public class LazyMail extends Mail {
+
+    private final LazyResolver resolver;
+
+    public LazyMail(LazyResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public String getBodyHTML() {
+        this.resolver.resolve();
+        return super.getBodyHTML();
+    }
+
+    @Override
+    public String getBodyTXT() {
+        this.resolver.resolve();
+        return super.getBodyTXT();
+    }
+
+    @Override
+    public List<Attachment> getAttachments() {
+        this.resolver.resolve();
+        return super.getAttachments();
+    }
+
+    @Override
+    public boolean isHasDeliveryStatus() {
+        this.resolver.resolve();
+        return super.isHasDeliveryStatus();
+    }
+
+    @Override
+    public DeliveryStatus getDeliveryStatus() {
+        this.resolver.resolve();
+        return super.getDeliveryStatus();
+    }
+
+    @Override
+    public List<ParseDiagnostic> getDiagnostics() {
+        this.resolver.resolve();
+        return super.getDiagnostics();
+    }
+}
@@ -0,0 +1,49 @@
+package app.tozzi.model;
+
+import jakarta.activation.DataSource;
+
+import java.util.List;
+
+/**
+ * {@link PEC} whose datiCert.xml, postaCert.eml, original message and certificate data are resolved on first access
+ *
+ * @author Biagio Tozzi
+ */
+public class LazyPEC extends PEC {
+
+    private final LazyResolver resolver;
+
+    public LazyPEC(LazyResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public DataSource getDatiCert() {
+        this.resolver.resolve();
+        return super.getDatiCert();
+    }
+
+    @Override
+    public DataSource getPostaCert() {
+        this.resolver.resolve();
+        return super.getPostaCert();
+    }
+
+    @Override
+    public Mail getOriginalMessage() {
+        this.resolver.resolve();
+        return super.getOriginalMessage();
+    }
+
+    @Override
+    public CertificateData getCertificateData() {
+        this.resolver.resolve();
+        return super.getCertificateData();
+    }
+
+    @Override
+    public List<ParseDiagnostic> getDiagnostics() {
+        this.resolver.resolve();
+        return super.getDiagnostics();
+    }
+}
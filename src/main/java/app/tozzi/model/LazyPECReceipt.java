@@ -0,0 +1,29 @@
+package app.tozzi.model;
+
+import java.util.List;
+
+/**
+ * {@link PECReceipt} whose certificate data is resolved on first access
+ *
+ * @author Biagio Tozzi
+ */
+public class LazyPECReceipt extends PECReceipt {
+
+    private final LazyResolver resolver;
+
+    public LazyPECReceipt(LazyResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public CertificateData getCertificateData() {
+        this.resolver.resolve();
+        return super.getCertificateData();
+    }
+
+    @Override
+    public List<ParseDiagnostic> getDiagnostics() {
+        this.resolver.resolve();
+        return super.getDiagnostics();
+    }
+}
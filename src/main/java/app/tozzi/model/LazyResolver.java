@@ -0,0 +1,64 @@
+package app.tozzi.model;
+
+/**
+ * Resolves the content of lazily materialized entities on first access.<br>
+ * A single resolver is shared by all the entities extracted from the same message, so the content is walked once.
+ *
+ * @author Biagio Tozzi
+ */
+public class LazyResolver {
+
+    private Runnable action;
+    private boolean resolved;
+    private boolean resolving;
+    private RuntimeException failure;
+
+    /**
+     * Binds the resolution action
+     *
+     * @param action action that populates the lazy entities
+     */
+    public synchronized void bind(Runnable action) {
+
+        if (this.action != null || this.resolved) {
+            throw new IllegalStateException("Resolver already bound");
+        }
+
+        this.action = action;
+    }
+
+    /**
+     * Runs the resolution action, once. Reentrant calls made by the action itself are ignored.<br>
+     * If the action fails the entities are left partially populated: the failure is rethrown by every later call, the action is never run again
+     */
+    public synchronized void resolve() {
+
+        if (this.failure != null) {
+            throw this.failure;
+        }
+
+        if (this.resolved || this.resolving || this.action == null) {
+            return;
+        }
+
+        this.resolving = true;
+
+        try {
+            this.action.run();
+            this.resolved = true;
+            this.action = null;
+
+        } catch (RuntimeException e) {
+            this.failure = e;
+            this.action = null;
+            throw e;
+
+        } finally {
+            this.resolving = false;
+        }
+    }
+
+    public synchronized boolean isResolved() {
+        return this.resolved;
+    }
+}
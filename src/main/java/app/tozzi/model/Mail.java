@@ -1,9 +1,12 @@
 package app.tozzi.model;
 
+import app.tozzi.model.exception.MailParserException;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -39,8 +42,37 @@ public class Mail implements ParsedEntity {
 
     private List<Header> headers;
 
+    private List<ParseDiagnostic> diagnostics = new ArrayList<>();
+
     @Override
     public ParsedEntityType getType() {
         return ParsedEntityType.MAIL;
     }
+
+    @Override
+    public void close() {
+        MailParserException error = null;
+
+        // fields are read directly, so that lazy content is not resolved just to be released
+        for (var attachment : this.attachments != null ? this.attachments : List.<Attachment>of()) {
+
+            if (attachment != null && attachment.getDataSource() instanceof Closeable closeable) {
+                try {
+                    closeable.close();
+
+                } catch (IOException e) {
+                    if (error == null) {
+                        error = new MailParserException("Error releasing attachment " + attachment.getName(), e);
+
+                    } else {
+                        error.addSuppressed(e);
+                    }
+                }
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
 }
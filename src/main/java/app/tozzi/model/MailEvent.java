@@ -0,0 +1,50 @@
+package app.tozzi.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Event emitted by the streaming mail reader
+ *
+ * @author Biagio Tozzi
+ */
+@Getter
+@Builder
+@ToString(exclude = "chunk")
+public class MailEvent {
+
+    private MailEventType type;
+
+    /**
+     * Identifier of the MIME entity (message or part) the event belongs to, unique within a message
+     */
+    private int entityId;
+
+    /**
+     * Nesting depth of the entity, 0 for the top level message
+     */
+    private int depth;
+
+    /**
+     * Header name and (unfolded) value, for {@link MailEventType#HEADER} events
+     */
+    private String headerName;
+    private String headerValue;
+
+    /**
+     * Entity metadata, for start and PEC events
+     */
+    private String contentType;
+    private String fileName;
+    private String disposition;
+    private String encoding;
+
+    /**
+     * Decoded body bytes, for {@link MailEventType#BODY_CHUNK} events. Valid until the reader is advanced
+     */
+    private ByteBuffer chunk;
+
+}
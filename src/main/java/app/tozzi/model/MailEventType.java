@@ -0,0 +1,12 @@
+package app.tozzi.model;
+
+/**
+ * Type of event emitted by the streaming mail reader
+ *
+ * @author Biagio Tozzi
+ */
+public enum MailEventType {
+
+    START_MESSAGE, HEADER, START_PART, BODY_CHUNK, END_PART, PEC_DATICERT, PEC_POSTACERT, END_MESSAGE;
+
+}
@@ -3,6 +3,9 @@ package app.tozzi.model;
 import jakarta.activation.DataSource;
 import lombok.Data;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * PEC
  *
@@ -24,9 +27,26 @@ public class PEC implements ParsedEntity {
     private String receiptTypeHeaderValue;
     private String referenceHeaderValue;
 
+    private List<ParseDiagnostic> diagnostics = new ArrayList<>();
+
     @Override
     public ParsedEntityType getType() {
         return ParsedEntityType.PEC;
     }
 
+    @Override
+    public void close() {
+
+        try {
+            if (this.envelope != null) {
+                this.envelope.close();
+            }
+
+        } finally {
+            if (this.originalMessage != null) {
+                this.originalMessage.close();
+            }
+        }
+    }
+
 }
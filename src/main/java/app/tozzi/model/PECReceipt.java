@@ -3,6 +3,9 @@ package app.tozzi.model;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * PEC Receipt
  *
@@ -14,9 +17,18 @@ public class PECReceipt implements ParsedEntity {
 
     private PEC pec;
     private CertificateData certificateData;
+    private List<ParseDiagnostic> diagnostics = new ArrayList<>();
 
     @Override
     public ParsedEntityType getType() {
         return ParsedEntityType.PEC_RECEIPT;
     }
+
+    @Override
+    public void close() {
+
+        if (this.pec != null) {
+            this.pec.close();
+        }
+    }
 }
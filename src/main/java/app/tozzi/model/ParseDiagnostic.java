@@ -0,0 +1,40 @@
+package app.tozzi.model;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Problem found by a lenient parse: the affected element was skipped and the rest of the message was extracted
+ *
+ * @author Biagio Tozzi
+ */
+@Getter
+@Builder
+@ToString
+public class ParseDiagnostic {
+
+    public enum Stage {
+        HEADERS, MULTIPART, BODY, ATTACHMENT, DELIVERY_STATUS, POSTACERT, DATICERT
+    }
+
+    /**
+     * Path of the MIME part inside its message, IMAP style ("1", "1.2"). Empty for the message itself
+     */
+    private String partPath;
+
+    /**
+     * Extraction stage that failed
+     */
+    private Stage stage;
+
+    /**
+     * Description of the problem
+     */
+    private String message;
+
+    /**
+     * Cause of the problem
+     */
+    private Throwable cause;
+}
@@ -0,0 +1,138 @@
+package app.tozzi.model;
+
+import app.tozzi.core.AttachmentSink;
+import app.tozzi.core.AttachmentStore;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Selective extraction profile used by {@link app.tozzi.MailParser}
+ *
+ * @author Biagio Tozzi
+ */
+@Getter
+@Builder
+public class ParseOptions {
+
+    /**
+     * Attachments are listed (name, content ID, inline flag, sizes) but their content is not decoded
+     */
+    private boolean skipAttachments;
+
+    /**
+     * With {@link #skipAttachments} the decoded size of base64 attachments is computed scanning their raw content, instead of being estimated from the raw size.
+     * The estimate is always used with deferred decoding and when parsing with a {@link app.tozzi.core.ParseHandler}
+     */
+    private boolean exactAttachmentSizes;
+
+    /**
+     * Text and HTML bodies are not extracted
+     */
+    private boolean skipBodies;
+
+    /**
+     * Only headers, addresses and PEC certificate data are extracted: no bodies, attachments, delivery status or original message
+     */
+    private boolean metadataOnly;
+
+    /**
+     * The original message (postacert.eml) of a PEC is not parsed
+     */
+    private boolean skipOriginalMessage;
+
+    /**
+     * Maximum number of characters kept for text and HTML bodies (preview): decoding stops at the limit, the rest of the body is not read.
+     * HTML parts are accumulated up to the limit. The text body is decoded whole when attachments are extracted, since uuencoded attachments may follow it.
+     * Zero or negative values mean no limit
+     */
+    private int maxBodySize;
+
+    /**
+     * Bodies, attachments, delivery status and PEC content are resolved on first access instead of during parsing
+     */
+    private boolean lazy;
+
+    /**
+     * Limits enforced during the traversal, no limits if null
+     */
+    private ResourceBudget budget;
+
+    /**
+     * Failures of single headers, parts, postaCert.eml or datiCert.xml do not abort the parse: they are skipped and reported by {@link ParsedEntity#getDiagnostics()}.
+     * Budget and cancellation errors are always thrown
+     */
+    private boolean lenient;
+
+    /**
+     * Executor decoding sibling attachments concurrently (e.g. {@link java.util.concurrent.ForkJoinPool#commonPool()} or a virtual thread executor).
+     * Attachments keep the order of the message. If null attachments are decoded sequentially; not used when parsing with a {@link app.tozzi.core.ParseHandler}
+     */
+    private Executor attachmentExecutor;
+
+    /**
+     * Store sharing equal attachment contents, within a message and across the messages parsed with it. Contents are owned by the store and are not released by {@link ParsedEntity#close()}.
+     * If null every attachment has its own copy
+     */
+    private AttachmentStore attachmentStore;
+
+    /**
+     * {@link java.security.MessageDigest} algorithms (e.g. SHA-256, SHA-1, MD5) computed on every attachment while it is decoded, exposed by {@link Attachment#getDigests()}
+     */
+    private Set<String> digestAlgorithms;
+
+    /**
+     * Attachments are not decoded during parsing: their {@link jakarta.activation.DataSource} decodes the part from the source message on every stream request.
+     * Attachment byte limits of the budget, the attachment executor and the spill threshold do not apply to them
+     */
+    private boolean deferAttachmentDecoding;
+
+    /**
+     * Attachments whose decoded content exceeds this number of bytes are written to a temporary file ({@link app.tozzi.util.TempFileDataSource})
+     * instead of the heap, and deleted by {@link ParsedEntity#close()}. Zero or negative values keep every attachment in memory
+     */
+    private long spillThreshold;
+
+    /**
+     * Directory of the temporary attachment files, the default temporary-file directory if null
+     */
+    private Path spillDirectory;
+
+    /**
+     * Sink every decoded attachment is written to (e.g. {@link app.tozzi.core.FileSystemAttachmentSink}): its handle becomes the attachment data source, nothing is copied in memory.
+     * Takes the place of the attachment store and of the spill threshold; not used with deferred decoding or when parsing with a {@link app.tozzi.core.ParseHandler}
+     */
+    private AttachmentSink attachmentSink;
+
+    /**
+     * Default options: everything is extracted
+     *
+     * @return {@link ParseOptions}
+     */
+    public static ParseOptions defaults() {
+        return ParseOptions.builder().build();
+    }
+
+    public ResourceBudget getBudget() {
+        return this.budget != null ? this.budget : ResourceBudget.unlimited();
+    }
+
+    public Set<String> getDigestAlgorithms() {
+        return this.digestAlgorithms != null ? this.digestAlgorithms : Set.of();
+    }
+
+    public boolean isExtractBodies() {
+        return !this.skipBodies && !this.metadataOnly;
+    }
+
+    public boolean isExtractAttachments() {
+        return !this.skipAttachments && !this.metadataOnly;
+    }
+
+    public boolean isExtractOriginalMessage() {
+        return !this.skipOriginalMessage && !this.metadataOnly;
+    }
+}
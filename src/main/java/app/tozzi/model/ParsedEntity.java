@@ -1,10 +1,31 @@
 package app.tozzi.model;
 
+import java.util.List;
+
 /**
  * @author Biagio Tozzi
  */
-public interface ParsedEntity {
+public interface ParsedEntity extends AutoCloseable {
 
     ParsedEntityType getType();
 
+    /**
+     * Problems found by a lenient parse.<br>
+     * Every diagnostic is reported by exactly one entity: those of a PEC envelope (datiCert.xml included) by the PEC, or by the receipt when the message is a PEC receipt.
+     * The original message of a PEC reports its own
+     *
+     * @return diagnostics, empty if the message was fully extracted. Empty by default, for entities not built by the parser
+     */
+    default List<ParseDiagnostic> getDiagnostics() {
+        return List.of();
+    }
+
+    /**
+     * Releases the resources held by the entity, such as the temporary files of attachments spilled to disk.
+     * Attachment contents must not be read afterwards. Does nothing by default
+     */
+    @Override
+    default void close() {
+    }
+
 }
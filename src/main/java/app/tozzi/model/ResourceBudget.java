@@ -0,0 +1,48 @@
+package app.tozzi.model;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Limits enforced while a message is walked. Zero or negative values mean no limit
+ *
+ * @author Biagio Tozzi
+ */
+@Getter
+@Builder
+public class ResourceBudget {
+
+    /**
+     * Maximum MIME nesting depth (multiparts and embedded messages)
+     */
+    private int maxDepth;
+
+    /**
+     * Maximum number of MIME parts, embedded messages included
+     */
+    private int maxParts;
+
+    /**
+     * Maximum decoded bytes of a single attachment
+     */
+    private long maxAttachmentBytes;
+
+    /**
+     * Maximum decoded bytes of bodies and attachments of the whole message
+     */
+    private long maxMessageBytes;
+
+    /**
+     * Maximum number of headers of a single message or part
+     */
+    private int maxHeaders;
+
+    /**
+     * No limits
+     *
+     * @return {@link ResourceBudget}
+     */
+    public static ResourceBudget unlimited() {
+        return ResourceBudget.builder().build();
+    }
+}
@@ -0,0 +1,23 @@
+package app.tozzi.model.exception;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a parse is stopped by its {@link app.tozzi.core.CancellationToken}
+ *
+ * @author Biagio Tozzi
+ */
+@Getter
+public class ParseCancelledException extends MailParserException {
+
+    public enum Reason {
+        CANCELLED, DEADLINE_EXCEEDED
+    }
+
+    private final Reason reason;
+
+    public ParseCancelledException(Reason reason) {
+        super(reason == Reason.CANCELLED ? "Parse cancelled" : "Parse deadline exceeded");
+        this.reason = reason;
+    }
+}
@@ -0,0 +1,25 @@
+package app.tozzi.model.exception;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a message exceeds a limit of its {@link app.tozzi.model.ResourceBudget}
+ *
+ * @author Biagio Tozzi
+ */
+@Getter
+public class ResourceLimitExceededException extends MailParserException {
+
+    public enum Limit {
+        DEPTH, PARTS, ATTACHMENT_BYTES, MESSAGE_BYTES, HEADERS
+    }
+
+    private final Limit limit;
+    private final long maxValue;
+
+    public ResourceLimitExceededException(Limit limit, long maxValue) {
+        super("Resource limit exceeded: " + limit + " > " + maxValue);
+        this.limit = limit;
+        this.maxValue = maxValue;
+    }
+}
@@ -0,0 +1,65 @@
+package app.tozzi.util;
+
+import jakarta.activation.DataSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link DataSource} of an attachment whose content is shared through an {@link app.tozzi.core.AttachmentStore}: name and content type belong to the attachment, the content to the store
+ *
+ * @author Biagio Tozzi
+ */
+public class BlobDataSource implements DataSource {
+
+    private final String hash;
+    private final DataSource content;
+    private final String contentType;
+    private final String name;
+
+    public BlobDataSource(String hash, DataSource content, String contentType, String name) {
+        this.hash = hash;
+        this.content = content;
+        this.contentType = contentType;
+        this.name = name;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return this.content.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Read-only data source");
+    }
+
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Hex encoded SHA-256 of the content, key of the content in the store
+     *
+     * @return hash
+     */
+    public String getHash() {
+        return this.hash;
+    }
+
+    /**
+     * Shared content
+     *
+     * @return {@link DataSource}
+     */
+    public DataSource getContent() {
+        return this.content;
+    }
+}
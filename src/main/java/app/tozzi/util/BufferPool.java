@@ -0,0 +1,164 @@
+package app.tozzi.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of heap and direct {@link ByteBuffer}s used by the copy and decode paths.<br>
+ * Capacities are rounded up to power-of-two size classes between {@value #MIN_SIZE} and {@value #MAX_SIZE} bytes: larger requests are allocated and dropped, never pooled.
+ * Released buffers go to a shared queue bounded per size class first, then to a small per-thread cache; beyond that they are left to the GC.
+ * Buffers are taken from the thread cache first, then from the shared queue.<br>
+ * A buffer must be released at most once and must not be used after being released. Thread-safe.
+ *
+ * @author Biagio Tozzi
+ */
+public final class BufferPool {
+
+    public static final int MIN_SIZE = 4 * 1024;
+    public static final int MAX_SIZE = 64 * 1024;
+
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+    private static final BufferPool SHARED = new BufferPool(16, 2);
+
+    private final int maxSharedPerClass;
+    private final int maxCachedPerClass;
+    private final Queue<ByteBuffer>[] shared;
+    private final AtomicInteger[] sharedCounts;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> cache;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong outstanding = new AtomicLong();
+
+    /**
+     * @param maxSharedPerClass buffers kept in the shared queue for each size class and kind (heap or direct)
+     * @param maxCachedPerClass buffers kept by each thread for each size class and kind
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(int maxSharedPerClass, int maxCachedPerClass) {
+        this.maxSharedPerClass = maxSharedPerClass;
+        this.maxCachedPerClass = maxCachedPerClass;
+        this.shared = new Queue[SIZE_CLASSES * 2];
+        this.sharedCounts = new AtomicInteger[SIZE_CLASSES * 2];
+
+        for (var i = 0; i < this.shared.length; i++) {
+            this.shared[i] = new ConcurrentLinkedQueue<>();
+            this.sharedCounts[i] = new AtomicInteger();
+        }
+
+        this.cache = ThreadLocal.withInitial(() -> new ArrayDeque[SIZE_CLASSES * 2]);
+    }
+
+    /**
+     * Pool shared by the library
+     *
+     * @return {@link BufferPool}
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Takes a cleared buffer
+     *
+     * @param capacity minimum capacity
+     * @param direct   true for a direct buffer, false for a heap buffer (with accessible array)
+     * @return {@link ByteBuffer} of at least capacity bytes, to be given back with {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer acquire(int capacity, boolean direct) {
+        this.outstanding.incrementAndGet();
+        var index = index(capacity, direct);
+
+        if (index >= 0) {
+            var cached = this.cache.get()[index];
+            var buffer = cached != null ? cached.poll() : null;
+
+            if (buffer == null && (buffer = this.shared[index].poll()) != null) {
+                this.sharedCounts[index].decrementAndGet();
+            }
+
+            if (buffer != null) {
+                this.hits.increment();
+                return buffer.clear();
+            }
+        }
+
+        this.misses.increment();
+        var size = index >= 0 ? MIN_SIZE << (index % SIZE_CLASSES) : capacity;
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Gives back a buffer taken with {@link #acquire(int, boolean)}
+     *
+     * @param buffer {@link ByteBuffer}, ignored if null
+     */
+    public void release(ByteBuffer buffer) {
+
+        if (buffer == null) {
+            return;
+        }
+
+        this.outstanding.decrementAndGet();
+        var capacity = buffer.capacity();
+
+        // not a size class: slices or oversized buffers
+        if (capacity < MIN_SIZE || capacity > MAX_SIZE || Integer.bitCount(capacity) != 1 || buffer.isReadOnly()) {
+            return;
+        }
+
+        var index = index(capacity, buffer.isDirect());
+
+        // shared queue first: buffers cached by short-lived (e.g. virtual) threads would be lost with the thread
+        if (this.sharedCounts[index].incrementAndGet() <= this.maxSharedPerClass) {
+            this.shared[index].offer(buffer);
+            return;
+        }
+
+        this.sharedCounts[index].decrementAndGet();
+        var caches = this.cache.get();
+
+        if (caches[index] == null) {
+            caches[index] = new ArrayDeque<>(this.maxCachedPerClass);
+        }
+
+        if (caches[index].size() < this.maxCachedPerClass) {
+            caches[index].push(buffer);
+        }
+    }
+
+    /**
+     * @return buffers served from the pool
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return buffers allocated because none was pooled
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return buffers acquired and not released yet
+     */
+    public long getOutstanding() {
+        return this.outstanding.get();
+    }
+
+    private static int index(int capacity, boolean direct) {
+
+        if (capacity > MAX_SIZE) {
+            return -1;
+        }
+
+        var sizeClass = capacity <= MIN_SIZE ? 0 : 32 - Integer.numberOfLeadingZeros(capacity - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+        return direct ? SIZE_CLASSES + sizeClass : sizeClass;
+    }
+}
@@ -0,0 +1,90 @@
+package app.tozzi.util;
+
+import app.tozzi.model.exception.MailParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Message digest utilities
+ *
+ * @author Biagio Tozzi
+ */
+public class DigestUtils {
+
+    /**
+     * Creates a digest for every algorithm
+     *
+     * @param algorithms {@link MessageDigest} algorithm names (e.g. SHA-256, SHA-1, MD5)
+     * @return digests by algorithm, in the given order
+     */
+    public static Map<String, MessageDigest> create(Collection<String> algorithms) {
+        var digests = new LinkedHashMap<String, MessageDigest>();
+
+        for (var algorithm : algorithms) {
+            try {
+                digests.put(algorithm, MessageDigest.getInstance(algorithm));
+
+            } catch (NoSuchAlgorithmException e) {
+                throw new MailParserException("Digest algorithm not available: " + algorithm, e);
+            }
+        }
+
+        return digests;
+    }
+
+    /**
+     * Listener updating every digest with the copied chunks
+     *
+     * @param digests {@link MessageDigest}
+     * @return {@link IOUtils.CopyListener}
+     */
+    public static IOUtils.CopyListener listener(Collection<MessageDigest> digests) {
+        return chunk -> {
+            for (var digest : digests) {
+                digest.update(chunk.duplicate());
+            }
+        };
+    }
+
+    /**
+     * Updates every digest with the content of a stream, through a caller-owned buffer
+     *
+     * @param inputStream {@link InputStream}, closed at the end
+     * @param digests     {@link MessageDigest}
+     * @param buffer      read buffer
+     * @throws IOException
+     */
+    public static void update(InputStream inputStream, Collection<MessageDigest> digests, ByteBuffer buffer) throws IOException {
+        var listener = listener(digests);
+
+        try (var channel = Channels.newChannel(inputStream)) {
+            buffer.clear();
+
+            while (channel.read(buffer) != -1) {
+                listener.onChunk(buffer.flip());
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Completes the digests
+     *
+     * @param digests digests by algorithm
+     * @return hex encoded digests by algorithm
+     */
+    public static Map<String, String> toHex(Map<String, MessageDigest> digests) {
+        var result = new LinkedHashMap<String, String>();
+        digests.forEach((algorithm, digest) -> result.put(algorithm, HexFormat.of().formatHex(digest.digest())));
+        return result;
+    }
+}
@@ -4,17 +4,28 @@ import jakarta.activation.DataSource;
 import jakarta.activation.FileTypeMap;
 import jakarta.mail.Part;
 import jakarta.mail.internet.MimePart;
+import jakarta.mail.internet.SharedInputStream;
 import jakarta.mail.util.ByteArrayDataSource;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
 
 /**
  * IO Utilities
@@ -23,6 +34,13 @@ import java.nio.channels.WritableByteChannel;
  */
 public class IOUtils {
 
+    /**
+     * Size of the copy buffers
+     */
+    public static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final int BASE64_LINE_LENGTH = 76;
+
     /**
      * Creates a {@link DataSource} from {@link MimePart}
      *
@@ -43,7 +61,17 @@ public class IOUtils {
      * @throws IOException
      */
     public static DataSource createDataSource(InputStream inputStream, String name) throws IOException {
-        byte[] content = getContent(inputStream);
+        return createDataSource(getContent(inputStream), name);
+    }
+
+    /**
+     * Creates a {@link DataSource} from a decoded content and file name
+     *
+     * @param content decoded content
+     * @param name    File name
+     * @return {@link DataSource}
+     */
+    public static DataSource createDataSource(byte[] content, String name) {
         name = name == null ? "unknown_name" : name;
         ByteArrayDataSource result = new ByteArrayDataSource(content, getFileMimeType(name));
         result.setName(name);
@@ -51,7 +79,8 @@ public class IOUtils {
     }
 
     /**
-     * Creates a {@link DataSource} from {@link MimePart} and file name
+     * Creates a {@link DataSource} from {@link MimePart} and file name.<br>
+     * Parts without transfer encoding backed by a {@link SharedInputStream} are exposed as slices of the source, without copying them
      *
      * @param part {@link MimePart}
      * @param name File name
@@ -59,16 +88,363 @@ public class IOUtils {
      * @throws IOException
      */
     public static DataSource createDataSource(MimePart part, String name) throws IOException {
+        var buffer = BufferPool.shared().acquire(BUFFER_SIZE, true);
+
+        try {
+            return createDataSource(part, name, buffer, null, 0, null);
+
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+    }
+
+    /**
+     * Creates a {@link DataSource} from {@link MimePart}, copying the content through a caller-owned buffer
+     *
+     * @param part   {@link MimePart}
+     * @param buffer copy buffer
+     * @return {@link DataSource}
+     * @throws IOException
+     */
+    public static DataSource createDataSource(MimePart part, ByteBuffer buffer) throws IOException {
+        return createDataSource(part, buffer, null);
+    }
+
+    /**
+     * Creates a {@link DataSource} from {@link MimePart}, copying the content through a caller-owned buffer.<br>
+     * Every decoded chunk is notified to listener while it is copied
+     *
+     * @param part     {@link MimePart}
+     * @param buffer   copy buffer
+     * @param listener {@link CopyListener}, can be null
+     * @return {@link DataSource}
+     * @throws IOException
+     */
+    public static DataSource createDataSource(MimePart part, ByteBuffer buffer, CopyListener listener) throws IOException {
+        return createDataSource(part, null, buffer, listener, 0, null);
+    }
+
+    /**
+     * Creates a {@link DataSource} from {@link MimePart}, copying the content through a caller-owned buffer.<br>
+     * Content larger than spillThreshold bytes is written to a temporary file instead of the heap: the returned {@link TempFileDataSource} must be closed to delete it
+     *
+     * @param part           {@link MimePart}
+     * @param buffer         copy buffer
+     * @param listener       {@link CopyListener}, can be null
+     * @param spillThreshold maximum number of bytes kept in memory, zero or negative for no limit
+     * @param spillDirectory directory of the temporary files, null for the default temporary-file directory
+     * @return {@link DataSource}
+     * @throws IOException
+     */
+    public static DataSource createDataSource(MimePart part, ByteBuffer buffer, CopyListener listener, long spillThreshold, Path spillDirectory) throws IOException {
+        return createDataSource(part, null, buffer, listener, spillThreshold, spillDirectory);
+    }
+
+    /**
+     * Creates a {@link DataSource} that decodes the content of {@link MimePart} only when its stream is requested, on every request.<br>
+     * Parts without transfer encoding backed by a {@link SharedInputStream} are exposed as slices of the source, as by {@link #createDataSource(MimePart, String)}
+     *
+     * @param part {@link MimePart}
+     * @return {@link DataSource}
+     */
+    public static DataSource createDeferredDataSource(MimePart part) {
+        var dataSource = MimeMessageUtils.getDataHandler(part).getDataSource();
+        var fileName = loadNameForDataSource(part);
+
+        if (isIdentityEncoding(MimeMessageUtils.getEncoding(part)) && MimeMessageUtils.getRawInputStream(part) instanceof SharedInputStream sharedInputStream) {
+            return new SharedStreamDataSource(sharedInputStream, getBaseMimeType(dataSource, fileName), fileName);
+        }
+
+        return new PartDataSource(part, getBaseMimeType(dataSource, fileName), fileName);
+    }
+
+    /**
+     * Decoded content of {@link MimePart}. Base64 and quoted-printable contents are decoded in bulk by a {@link TransferDecoder},
+     * any other encoding (or a part without raw stream) by the {@link jakarta.activation.DataHandler} of the part
+     *
+     * @param part {@link MimePart}
+     * @return {@link InputStream}
+     * @throws IOException
+     */
+    public static InputStream getDecodedInputStream(MimePart part) throws IOException {
+        var decoder = TransferDecoder.of(MimeMessageUtils.getEncoding(part));
+        var raw = decoder != null ? MimeMessageUtils.getRawInputStream(part) : null;
+
+        if (raw != null) {
+            return new DecodingInputStream(raw, decoder);
+        }
+
+        return MimeMessageUtils.getDataHandler(part).getDataSource().getInputStream();
+    }
+
+    /**
+     * Decoded content of {@link MimePart}, notifying listener with every chunk read
+     *
+     * @param part     {@link MimePart}
+     * @param listener {@link CopyListener}, nullable
+     * @return {@link InputStream}
+     * @throws IOException
+     */
+    public static InputStream getInputStream(MimePart part, CopyListener listener) throws IOException {
+        var inputStream = getDecodedInputStream(part);
+        return listener != null ? new ListeningInputStream(inputStream, listener) : inputStream;
+    }
+
+    /**
+     * Wraps a stream so that closing the wrapper does not close it
+     *
+     * @param inputStream {@link InputStream}
+     * @return {@link InputStream} ignoring {@link InputStream#close()}
+     */
+    public static InputStream closeShield(InputStream inputStream) {
+        return new CloseShieldInputStream(inputStream);
+    }
+
+    /**
+     * Decoded size of the content of {@link MimePart}, computed from its raw content without decoding it.<br>
+     * It is exact for parts without transfer encoding and for base64 parts, whose alphabet characters are counted; for other encodings the raw size is returned as an upper bound
+     *
+     * @param part {@link MimePart}
+     * @return size in bytes, -1 if unknown
+     * @throws IOException
+     * @see #isDecodedSizeExact(String)
+     * @see #estimateDecodedSize(MimePart)
+     */
+    public static long getDecodedSize(MimePart part) throws IOException {
+        var encoding = MimeMessageUtils.getEncoding(part);
+
+        if (!"base64".equalsIgnoreCase(encoding != null ? encoding.trim() : null)) {
+            return MimeMessageUtils.getSize(part);
+        }
+
+        var raw = MimeMessageUtils.getRawInputStream(part);
+        if (raw == null) {
+            return -1;
+        }
+
+        var pooled = BufferPool.shared().acquire(BUFFER_SIZE, false);
+        var buffer = pooled.array();
+        long count = 0;
+        int read;
+
+        try (raw) {
+            while ((read = raw.read(buffer)) != -1) {
+                for (var i = 0; i < read; i++) {
+                    var b = buffer[i];
+
+                    if (b == '=') {
+                        return count * 3 / 4;
+                    }
+
+                    if (b >= 'A' && b <= 'Z' || b >= 'a' && b <= 'z' || b >= '0' && b <= '9' || b == '+' || b == '/') {
+                        count++;
+                    }
+                }
+            }
+
+        } finally {
+            BufferPool.shared().release(pooled);
+        }
+
+        return count * 3 / 4;
+    }
+
+    /**
+     * Decoded size of the content of {@link MimePart}, estimated from its raw size only, without reading it.<br>
+     * It is exact for parts without transfer encoding. Base64 sizes assume lines of 76 characters ended by CRLF and ignore the padding;
+     * for other encodings the raw size is returned as an upper bound
+     *
+     * @param part {@link MimePart}
+     * @return size in bytes, -1 if unknown
+     * @see #isEstimatedSizeExact(String)
+     */
+    public static long estimateDecodedSize(MimePart part) {
+        var size = MimeMessageUtils.getSize(part);
+        var encoding = MimeMessageUtils.getEncoding(part);
+
+        if (size < 0 || !"base64".equalsIgnoreCase(encoding != null ? encoding.trim() : null)) {
+            return size;
+        }
+
+        var characters = size - (size + BASE64_LINE_LENGTH + 1) / (BASE64_LINE_LENGTH + 2) * 2;
+        return Math.max(characters, 0) / 4 * 3;
+    }
+
+    /**
+     * @param encoding content transfer encoding
+     * @return true if {@link #estimateDecodedSize(MimePart)} is exact for the encoding
+     */
+    public static boolean isEstimatedSizeExact(String encoding) {
+        return isIdentityEncoding(encoding != null ? encoding.trim() : null);
+    }
+
+    /**
+     * @param encoding content transfer encoding
+     * @return true if {@link #getDecodedSize(MimePart)} is exact for the encoding
+     */
+    public static boolean isDecodedSizeExact(String encoding) {
+        var trimmed = encoding != null ? encoding.trim() : null;
+        return isIdentityEncoding(trimmed) || "base64".equalsIgnoreCase(trimmed);
+    }
+
+    /**
+     * Releases the resources held by a {@link DataSource}, such as the file of a {@link TempFileDataSource}, ignoring errors
+     *
+     * @param dataSource {@link DataSource}, can be null
+     */
+    public static void closeQuietly(DataSource dataSource) {
+
+        if (dataSource instanceof Closeable closeable) {
+            try {
+                closeable.close();
+
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private static DataSource createDataSource(MimePart part, String name, ByteBuffer buffer, CopyListener listener, long spillThreshold, Path spillDirectory) throws IOException {
         var dataSource = MimeMessageUtils.getDataHandler(part).getDataSource();
-        byte[] content = getContent(dataSource.getInputStream());
         var fileName = name != null ? name : loadNameForDataSource(part);
+
+        if (isIdentityEncoding(MimeMessageUtils.getEncoding(part)) && MimeMessageUtils.getRawInputStream(part) instanceof SharedInputStream sharedInputStream) {
+            return new SharedStreamDataSource(sharedInputStream, getBaseMimeType(dataSource, fileName), fileName);
+        }
+
+        if (spillThreshold > 0) {
+            return spill(getDecodedInputStream(part), buffer, listener, spillThreshold, spillDirectory, getBaseMimeType(dataSource, fileName), fileName);
+        }
+
+        byte[] content = getContent(getDecodedInputStream(part), buffer, listener);
         var result = new ByteArrayDataSource(content, getBaseMimeType(dataSource, fileName));
         result.setName(fileName);
         return result;
     }
 
     /**
-     * Copy {@link InputStream} into {@link OutputStream} with buffer of 16KB
+     * Decodes the text of {@link InputStream}, appending it to target until target reaches limit characters: the rest of the stream is not read
+     *
+     * @param is       encoded text
+     * @param decoder  {@link CharsetDecoder}, reset
+     * @param chars    scratch buffer
+     * @param target   {@link StringBuilder}
+     * @param limit    maximum length of target
+     * @param listener {@link CopyListener} notified with the bytes read, can be null
+     * @throws IOException
+     */
+    public static void appendText(InputStream is, CharsetDecoder decoder, CharBuffer chars, StringBuilder target, int limit, CopyListener listener) throws IOException {
+        var bytes = BufferPool.shared().acquire(BUFFER_SIZE, false);
+        var eof = false;
+
+        try {
+            while (target.length() < limit) {
+
+                if (!eof && bytes.hasRemaining()) {
+                    var read = is.read(bytes.array(), bytes.position(), bytes.remaining());
+
+                    if (read == -1) {
+                        eof = true;
+
+                    } else {
+                        if (listener != null) {
+                            listener.onChunk(ByteBuffer.wrap(bytes.array(), bytes.position(), read));
+                        }
+
+                        bytes.position(bytes.position() + read);
+                    }
+                }
+
+                bytes.flip();
+                var result = decoder.decode(bytes, chars.clear(), eof);
+                bytes.compact();
+
+                if (eof && result.isUnderflow()) {
+                    while (decoder.flush(append(chars, target, limit)).isOverflow()) {
+                        // flushed into the cleared buffer
+                    }
+
+                    append(chars, target, limit);
+                    return;
+                }
+
+                append(chars, target, limit);
+            }
+
+        } finally {
+            BufferPool.shared().release(bytes);
+        }
+    }
+
+    /**
+     * Appends the decoded characters up to limit
+     *
+     * @return chars, cleared
+     */
+    private static CharBuffer append(CharBuffer chars, StringBuilder target, int limit) {
+        chars.flip();
+        target.append(chars, 0, Math.min(chars.remaining(), Math.max(0, limit - target.length())));
+        return chars.clear();
+    }
+
+    /**
+     * Writes the content of {@link DataSource} to target.<br>
+     * File-backed contents ({@link TempFileDataSource}, {@link PathDataSource}) are transferred with {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+     * slices of a mapped or buffered source ({@link SharedStreamDataSource}) are written straight from the source buffer; any other content is copied through a pooled buffer
+     *
+     * @param dataSource {@link DataSource}
+     * @param target     {@link WritableByteChannel}, not closed
+     * @return number of bytes written
+     * @throws IOException
+     */
+    public static long transferTo(DataSource dataSource, WritableByteChannel target) throws IOException {
+
+        if (dataSource instanceof BlobDataSource blobDataSource) {
+            return transferTo(blobDataSource.getContent(), target);
+        }
+
+        var file = dataSource instanceof TempFileDataSource tempFileDataSource ? tempFileDataSource.getFile()
+                : dataSource instanceof PathDataSource pathDataSource ? pathDataSource.getFile() : null;
+
+        if (file != null) {
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                var size = channel.size();
+                var position = 0L;
+
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, target);
+                }
+
+                return position;
+            }
+        }
+
+        if (dataSource instanceof SharedStreamDataSource && dataSource.getInputStream() instanceof SharedByteBufferInputStream slice) {
+            var buffer = slice.getBuffer();
+            var size = buffer.remaining();
+
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+
+            return size;
+        }
+
+        var buffer = BufferPool.shared().acquire(BUFFER_SIZE, true);
+        var written = new long[1];
+
+        try (var inputChannel = Channels.newChannel(dataSource.getInputStream())) {
+            fastCopy(inputChannel, target, buffer, chunk -> written[0] += chunk.remaining());
+
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+
+        return written[0];
+    }
+
+    /**
+     * Copy {@link InputStream} into {@link OutputStream} with a pooled buffer of 16KB
      *
      * @param src {@link InputStream}
      * @param dest {@link OutputStream}
@@ -82,7 +458,13 @@ public class IOUtils {
         outputChannel.close();
     }
 
-    private static String loadNameForDataSource(MimePart part) {
+    /**
+     * Retrieve the attachment name of {@link MimePart}, guessing it from the content type if missing
+     *
+     * @param part {@link MimePart}
+     * @return attachment name
+     */
+    public static String loadNameForDataSource(MimePart part) {
         var fileName = MimeMessageUtils.getFileName(part);
         return fileName != null && !fileName.trim().isEmpty() ? MimeMessageUtils.decodeText(fileName) : getName(part);
     }
@@ -115,6 +497,10 @@ public class IOUtils {
         return null;
     }
 
+    private static boolean isIdentityEncoding(String encoding) {
+        return encoding == null || encoding.equalsIgnoreCase("7bit") || encoding.equalsIgnoreCase("8bit") || encoding.equalsIgnoreCase("binary");
+    }
+
     private static String getBaseMimeType(DataSource dataSource, String fileName) {
         var fullMimeType = dataSource.getContentType();
 
@@ -129,18 +515,373 @@ public class IOUtils {
         return fullMimeType;
     }
 
-    static byte[] getContent(InputStream is) throws IOException {
-        byte[] result;
+    /**
+     * Reads the lines of {@link InputStream} through a pooled buffer. Lines end with LF, CRLF or CR, terminators excluded
+     *
+     * @param is       {@link InputStream}
+     * @param charset  {@link Charset} of the lines
+     * @param consumer notified with every line
+     * @throws IOException
+     */
+    public static void readLines(InputStream is, Charset charset, Consumer<String> consumer) throws IOException {
+        var pooled = BufferPool.shared().acquire(BUFFER_SIZE, false);
+        var buffer = pooled.array();
+        var line = new ByteArrayOutputStream();
+        var cr = false;
+        int read;
+
+        try {
+            while ((read = is.read(buffer)) != -1) {
+                var start = 0;
+
+                for (var i = 0; i < read; i++) {
+                    var b = buffer[i];
+
+                    if (b == '\n' && cr) {
+                        start = i + 1;
+
+                    } else if (b == '\n' || b == '\r') {
+                        line.write(buffer, start, i - start);
+                        consumer.accept(line.toString(charset));
+                        line.reset();
+                        start = i + 1;
+                    }
+
+                    cr = b == '\r';
+                }
+
+                line.write(buffer, start, read - start);
+            }
+
+            if (line.size() > 0) {
+                consumer.accept(line.toString(charset));
+            }
+
+        } finally {
+            BufferPool.shared().release(pooled);
+        }
+    }
+
+    /**
+     * Reads the whole content of {@link InputStream} through a pooled buffer
+     *
+     * @param is {@link InputStream}
+     * @return content
+     * @throws IOException
+     */
+    public static byte[] getContent(InputStream is) throws IOException {
+        var buffer = BufferPool.shared().acquire(BUFFER_SIZE, true);
+
+        try {
+            return getContent(is, buffer, null);
+
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+    }
+
+    private static byte[] getContent(InputStream is, ByteBuffer buffer, CopyListener listener) throws IOException {
         var os = new ByteArrayOutputStream();
-        fastCopy(is, os);
-        result = os.toByteArray();
+        var inputChannel = Channels.newChannel(is);
+        var outputChannel = Channels.newChannel(os);
+        fastCopy(inputChannel, outputChannel, buffer.clear(), listener);
+        inputChannel.close();
+        outputChannel.close();
+        return os.toByteArray();
+    }
+
+    private static DataSource spill(InputStream is, ByteBuffer buffer, CopyListener listener, long threshold, Path directory, String contentType, String name) throws IOException {
+        var output = new SpillingChannel(threshold, directory);
+
+        try (var inputChannel = Channels.newChannel(is); output) {
+            fastCopy(inputChannel, output, buffer.clear(), listener);
+
+        } catch (IOException | RuntimeException e) {
+            output.discard();
+            throw e;
+        }
+
+        if (output.file != null) {
+            return new TempFileDataSource(output.file, contentType, name);
+        }
+
+        var result = new ByteArrayDataSource(output.memory.toByteArray(), contentType);
+        result.setName(name);
         return result;
     }
 
+    /**
+     * Channel writing to memory up to a threshold, then to a temporary file
+     */
+    private static final class SpillingChannel implements WritableByteChannel {
+
+        private final long threshold;
+        private final Path directory;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private Path file;
+        private FileChannel fileChannel;
+        private boolean open = true;
+
+        private SpillingChannel(long threshold, Path directory) {
+            this.threshold = threshold;
+            this.directory = directory;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            var length = src.remaining();
+
+            if (this.fileChannel == null && this.memory.size() + (long) length > this.threshold) {
+                this.file = this.directory != null ? Files.createTempFile(this.directory, "mailparser-", ".tmp") : Files.createTempFile("mailparser-", ".tmp");
+                this.fileChannel = FileChannel.open(this.file, StandardOpenOption.WRITE);
+                writeFully(ByteBuffer.wrap(this.memory.toByteArray()));
+                this.memory = null;
+            }
+
+            if (this.fileChannel != null) {
+                writeFully(src);
+
+            } else if (src.hasArray()) {
+                this.memory.write(src.array(), src.arrayOffset() + src.position(), length);
+                src.position(src.limit());
+
+            } else {
+                var bytes = new byte[length];
+                src.get(bytes);
+                this.memory.write(bytes);
+            }
+
+            return length;
+        }
+
+        private void writeFully(ByteBuffer src) throws IOException {
+
+            while (src.hasRemaining()) {
+                this.fileChannel.write(src);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.open = false;
+
+            if (this.fileChannel != null) {
+                this.fileChannel.close();
+            }
+        }
+
+        private void discard() {
+
+            try {
+                close();
+
+                if (this.file != null) {
+                    Files.deleteIfExists(this.file);
+                }
+
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * Stream decoding a raw content with a {@link TransferDecoder}, one pooled buffer of encoded bytes at a time
+     */
+    private static final class DecodingInputStream extends InputStream {
+
+        private final InputStream raw;
+        private final TransferDecoder decoder;
+        private ByteBuffer input;
+        private ByteBuffer output;
+        private byte[] decoded;
+        private int position;
+        private int limit;
+        private boolean eof;
+
+        private DecodingInputStream(InputStream raw, TransferDecoder decoder) {
+            this.raw = raw;
+            this.decoder = decoder;
+            this.input = BufferPool.shared().acquire(BUFFER_SIZE, false);
+            this.output = BufferPool.shared().acquire(BUFFER_SIZE, false);
+            this.decoded = this.output.array();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? this.decoded[this.position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!fill()) {
+                return -1;
+            }
+
+            var length = Math.min(len, this.limit - this.position);
+            System.arraycopy(this.decoded, this.position, b, off, length);
+            this.position += length;
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return this.limit - this.position;
+        }
+
+        /**
+         * @return false at the end of the content
+         */
+        private boolean fill() throws IOException {
+
+            if (this.input == null) {
+                throw new IOException("Stream closed");
+            }
+
+            while (this.position == this.limit && !this.eof) {
+                var encoded = this.input.array();
+
+                // no more than the pooled output buffer can hold once decoded
+                var length = Math.max(Math.min(encoded.length, this.decoded.length - this.decoder.maxDecodedLength(0)), 1);
+                var read = this.raw.read(encoded, 0, length);
+                this.position = 0;
+
+                if (read == -1) {
+                    this.eof = true;
+                    ensureCapacity(this.decoder.maxDecodedLength(0));
+                    this.limit = this.decoder.finish(this.decoded, 0);
+
+                } else {
+                    ensureCapacity(this.decoder.maxDecodedLength(read));
+                    this.limit = this.decoder.decode(encoded, 0, read, this.decoded, 0);
+                }
+            }
+
+            return this.position < this.limit;
+        }
+
+        private void ensureCapacity(int capacity) {
+
+            if (this.decoded.length < capacity) {
+                this.decoded = new byte[capacity];
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (this.input != null) {
+                BufferPool.shared().release(this.input);
+                BufferPool.shared().release(this.output);
+                this.input = null;
+                this.output = null;
+                this.raw.close();
+            }
+        }
+    }
+
+    /**
+     * Stream whose {@link InputStream#close()} does nothing, to hand out a stream whose owner closes it
+     */
+    private static final class CloseShieldInputStream extends FilterInputStream {
+
+        private CloseShieldInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Stream notifying a listener with the bytes read: skipped bytes are read too
+     */
+    private static final class ListeningInputStream extends FilterInputStream {
+
+        private final CopyListener listener;
+
+        private ListeningInputStream(InputStream in, CopyListener listener) {
+            super(in);
+            this.listener = listener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            var result = super.read();
+
+            if (result != -1) {
+                this.listener.onChunk(ByteBuffer.wrap(new byte[]{(byte) result}));
+            }
+
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var read = super.read(b, off, len);
+
+            if (read > 0) {
+                this.listener.onChunk(ByteBuffer.wrap(b, off, read));
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            var skipped = 0L;
+            var pooled = BufferPool.shared().acquire(BUFFER_SIZE, false);
+            int read;
+
+            try {
+                while (skipped < n && (read = read(pooled.array(), 0, (int) Math.min(pooled.capacity(), n - skipped))) != -1) {
+                    skipped += read;
+                }
+
+            } finally {
+                BufferPool.shared().release(pooled);
+            }
+
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
     private static void fastCopy(ReadableByteChannel src, WritableByteChannel dest) throws IOException {
-        var buffer = ByteBuffer.allocateDirect(16 * 1024);
+        var buffer = BufferPool.shared().acquire(BUFFER_SIZE, true);
+
+        try {
+            fastCopy(src, dest, buffer, null);
+
+        } finally {
+            BufferPool.shared().release(buffer);
+        }
+    }
+
+    private static void fastCopy(ReadableByteChannel src, WritableByteChannel dest, ByteBuffer buffer, CopyListener listener) throws IOException {
+        int read;
+
+        while ((read = src.read(buffer)) != -1) {
+
+            if (listener != null && read > 0) {
+                listener.onChunk(buffer.duplicate().limit(buffer.position()).position(buffer.position() - read));
+            }
 
-        while (src.read(buffer) != -1) {
             ((Buffer) buffer).flip();
             dest.write(buffer);
             buffer.compact();
@@ -179,4 +920,29 @@ public class IOUtils {
         return result != null ? result : MimeTypesUtil.CONTENT_TYPE_OCTETSTREAM;
     }
 
+    /**
+     * Notified with every chunk copied from a source
+     */
+    @FunctionalInterface
+    public interface CopyListener {
+
+        /**
+         * @param chunk copied bytes, between position and limit
+         * @throws IOException
+         */
+        void onChunk(ByteBuffer chunk) throws IOException;
+
+        /**
+         * Listener notifying this listener and then after, each with its own view of the chunk
+         *
+         * @param after {@link CopyListener}
+         * @return {@link CopyListener}
+         */
+        default CopyListener andThen(CopyListener after) {
+            return chunk -> {
+                onChunk(chunk.duplicate());
+                after.onChunk(chunk);
+            };
+        }
+    }
 }
@@ -15,4 +15,5 @@ public class MailConstants {
 
     public static final String X_ATTACHMENT_ID = "X-Attachment-Id";
     public static final String CONTENT_ID = "Content-ID";
+    public static final String MESSAGE_ID = "Message-ID";
 }
@@ -3,14 +3,22 @@ package app.tozzi.util;
 import app.tozzi.model.exception.MailParserException;
 import jakarta.activation.DataHandler;
 import jakarta.mail.*;
+import jakarta.mail.internet.ContentType;
 import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimePart;
+import jakarta.mail.internet.MimePartDataSource;
 import jakarta.mail.internet.MimeUtility;
+import jakarta.mail.internet.ParseException;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -355,6 +363,78 @@ public class MimeMessageUtils {
 
     }
 
+    /**
+     * Extracts decoded content stream of {@link Part}
+     *
+     * @param part {@link Part}
+     * @return decoded content stream
+     */
+    public static InputStream getInputStream(Part part) {
+
+        try {
+            return part.getInputStream();
+
+        } catch (IOException | MessagingException e) {
+            throw new MailParserException("Error reading content stream of part: " + getDescription(part), e);
+        }
+    }
+
+    /**
+     * Retrieve base content type (without parameters) of {@link Part}
+     *
+     * @param part {@link Part}
+     * @return base content type, null if missing or invalid
+     */
+    public static String getBaseContentType(Part part) {
+        var contentType = parseContentType(part);
+        return contentType != null ? contentType.getBaseType().toLowerCase() : null;
+    }
+
+    /**
+     * Retrieve charset parameter of the content type of {@link Part}
+     *
+     * @param part {@link Part}
+     * @return charset, null if missing
+     */
+    public static String getCharset(Part part) {
+        var contentType = parseContentType(part);
+        return contentType != null ? contentType.getParameter("charset") : null;
+    }
+
+    /**
+     * Java charset of the text content of {@link Part}, US-ASCII if the charset parameter is missing (as for the text content handlers)
+     *
+     * @param part {@link Part}
+     * @return {@link Charset}, null if the charset is not supported
+     */
+    public static Charset getJavaCharset(Part part) {
+        var charset = getCharset(part);
+
+        try {
+            return Charset.forName(MimeUtility.javaCharset(charset != null ? charset : "us-ascii"));
+
+        } catch (IllegalArgumentException e) {
+            log.warn("Unsupported charset: {}", charset);
+            return null;
+        }
+    }
+
+    private static ContentType parseContentType(Part part) {
+        var contentType = getContentType(part);
+
+        if (contentType == null) {
+            return null;
+        }
+
+        try {
+            return new ContentType(contentType);
+
+        } catch (ParseException e) {
+            log.warn("Invalid content type: {}", contentType);
+            return null;
+        }
+    }
+
     /**
      * Check that the {@link Part} is of the mimeType
      *
@@ -388,6 +468,62 @@ public class MimeMessageUtils {
         }
     }
 
+    /**
+     * Retrieve content transfer encoding of {@link MimePart}
+     *
+     * @param part {@link MimePart}
+     * @return content transfer encoding
+     */
+    public static String getEncoding(MimePart part) {
+
+        try {
+            return part.getEncoding();
+
+        } catch (MessagingException e) {
+            throw new MailParserException("Error reading encoding of part: " + getDescription(part), e);
+        }
+    }
+
+    /**
+     * Retrieve the size of the raw (not decoded) content of {@link Part}
+     *
+     * @param part {@link Part}
+     * @return size in bytes, -1 if unknown
+     */
+    public static long getSize(Part part) {
+
+        try {
+            return part.getSize();
+
+        } catch (MessagingException e) {
+            throw new MailParserException("Error reading size of part: " + getDescription(part), e);
+        }
+    }
+
+    /**
+     * Extracts the raw (not decoded) content stream of {@link MimePart}
+     *
+     * @param part {@link MimePart}
+     * @return raw stream, null if the part does not expose it
+     */
+    public static InputStream getRawInputStream(MimePart part) {
+
+        try {
+            if (part instanceof MimeBodyPart mbp) {
+                return mbp.getRawInputStream();
+            }
+
+            if (part instanceof MimeMessage mm) {
+                return mm.getRawInputStream();
+            }
+
+            return null;
+
+        } catch (MessagingException e) {
+            throw new MailParserException("Error reading raw stream of part: " + getDescription(part), e);
+        }
+    }
+
     /**
      * Decode text
      *
@@ -438,6 +574,106 @@ public class MimeMessageUtils {
         }
     }
 
+    /**
+     * Creates {@link MimeMessage} from {@link InputStream}
+     *
+     * @param inputStream {@link InputStream}
+     * @param session     {@link Session}
+     * @return {@link MimeMessage}
+     */
+    public static MimeMessage createMimeMessage(InputStream inputStream, Session session) {
+
+        try {
+            return new MimeMessage(session, inputStream);
+
+        } catch (MessagingException e) {
+            throw new MailParserException("Error creating mime message", e);
+        }
+    }
+
+    /**
+     * Extracts the message embedded in a message/rfc822 {@link MimePart}.<br>
+     * The message already built by the part is reused: when the part is backed by a shared stream its bytes are not copied.
+     *
+     * @param part    message/rfc822 {@link MimePart}
+     * @param session {@link Session} used when the message has to be built from the part content
+     * @return {@link MimeMessage}
+     */
+    public static MimeMessage getEmbeddedMessage(MimePart part, Session session) {
+
+        if (getContent(part) instanceof MimeMessage mimeMessage) {
+            return mimeMessage;
+        }
+
+        try (var inputStream = new MimePartDataSource(part).getInputStream()) {
+            return createMimeMessage(inputStream, session);
+
+        } catch (IOException e) {
+            throw new MailParserException("Error reading embedded message of part: " + getDescription(part), e);
+        }
+    }
+
+    /**
+     * Reads the raw header block from {@link InputStream} one byte at a time, blank line included: the stream is left positioned at the first byte of the body
+     *
+     * @param inputStream {@link InputStream}
+     * @return header block
+     */
+    public static byte[] readHeaderBlock(InputStream inputStream) {
+        var block = new ByteArrayOutputStream();
+        var lineLength = 0;
+        int b;
+
+        try {
+            while ((b = inputStream.read()) != -1) {
+                block.write(b);
+
+                if (b == '\n') {
+                    if (lineLength == 0) {
+                        break;
+                    }
+
+                    lineLength = 0;
+
+                } else if (b != '\r') {
+                    lineLength++;
+                }
+            }
+
+        } catch (IOException e) {
+            throw new MailParserException("Error reading headers", e);
+        }
+
+        return block.toByteArray();
+    }
+
+    /**
+     * Reads the header block from {@link InputStream}, stopping at the first blank line
+     *
+     * @param inputStream {@link InputStream}
+     * @return {@link InternetHeaders}
+     */
+    public static InternetHeaders loadHeaders(InputStream inputStream) {
+
+        try {
+            return new InternetHeaders(inputStream);
+
+        } catch (MessagingException e) {
+            throw new MailParserException("Error reading headers", e);
+        }
+    }
+
+    /**
+     * Extracts a single header value from key headerKey of {@link InternetHeaders}
+     *
+     * @param headers {@link InternetHeaders}
+     * @param headerKey Header key
+     * @return Header value
+     */
+    public static String getHeader(InternetHeaders headers, String headerKey) {
+        return headers.getHeader(headerKey, ",");
+    }
+
     /**
      * Extracts all headers from {@link MimeMessage}
      *
@@ -451,6 +687,27 @@ public class MimeMessageUtils {
         } catch (MessagingException e) {
             throw new MailParserException("Error reading all headers", e);
         }
+
+    }
+
+    /**
+     * Counts the headers of {@link Part}
+     *
+     * @param part {@link Part}
+     * @return number of headers
+     */
+    public static int countHeaders(Part part) {
+
+        try {
+            var count = 0;
+            for (var headers = part.getAllHeaders(); headers.hasMoreElements(); headers.nextElement()) {
+                count++;
+            }
+            return count;
+
+        } catch (MessagingException e) {
+            throw new MailParserException("Error reading headers of part: " + getDescription(part), e);
+        }
     }
     
     private static String getUniqueMessageID(MimeMessage mimeMessage) throws NoSuchAlgorithmException, MessagingException {
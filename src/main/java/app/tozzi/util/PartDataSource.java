@@ -0,0 +1,66 @@
+package app.tozzi.util;
+
+import jakarta.mail.internet.MimePart;
+import jakarta.mail.internet.MimePartDataSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link jakarta.activation.DataSource} decoding a MIME part from the source message on every {@link #getInputStream()} call: nothing is copied or decoded in advance.<br>
+ * The source of the message (mapped file, buffer or {@link jakarta.mail.internet.MimeMessage}) is retained by the part
+ *
+ * @author Biagio Tozzi
+ */
+public class PartDataSource extends MimePartDataSource {
+
+    private final String contentType;
+    private final String name;
+    private final String encoding;
+
+    public PartDataSource(MimePart part, String contentType, String name) {
+        super(part);
+        this.contentType = contentType;
+        this.name = name;
+        this.encoding = MimeMessageUtils.getEncoding(part);
+    }
+
+    /**
+     * Decodes the part, see {@link IOUtils#getDecodedInputStream(MimePart)}
+     *
+     * @return decoded content
+     * @throws IOException
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return IOUtils.getDecodedInputStream(this.part);
+    }
+
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Content-transfer-encoding decoded by {@link #getInputStream()}
+     *
+     * @return encoding, null if the part has no transfer encoding
+     */
+    public String getEncoding() {
+        return this.encoding;
+    }
+
+    /**
+     * Part this data source decodes
+     *
+     * @return {@link MimePart}
+     */
+    public MimePart getPart() {
+        return this.part;
+    }
+}
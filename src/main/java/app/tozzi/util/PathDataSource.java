@@ -0,0 +1,66 @@
+package app.tozzi.util;
+
+import jakarta.activation.DataSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Read-only {@link DataSource} over a file written by an {@link app.tozzi.core.AttachmentSink}. Unlike {@link TempFileDataSource} the file is not owned: it is never deleted
+ *
+ * @author Biagio Tozzi
+ */
+public class PathDataSource implements DataSource {
+
+    private final Path file;
+    private final String contentType;
+    private final String name;
+
+    public PathDataSource(Path file, String contentType, String name) {
+        this.file = file;
+        this.contentType = contentType;
+        this.name = name;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return Files.newInputStream(this.file);
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Read-only data source");
+    }
+
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * File of this data source
+     *
+     * @return {@link Path}
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * Size of the content
+     *
+     * @return size in bytes
+     * @throws IOException
+     */
+    public long getSize() throws IOException {
+        return Files.size(this.file);
+    }
+}
@@ -0,0 +1,112 @@
+package app.tozzi.util;
+
+import jakarta.mail.internet.SharedInputStream;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * {@link SharedInputStream} backed by a {@link ByteBuffer} (heap, direct or memory-mapped).<br>
+ * Streams created by {@link #newStream(long, long)} are slices of the same buffer: no data is copied.
+ *
+ * @author Biagio Tozzi
+ */
+public class SharedByteBufferInputStream extends InputStream implements SharedInputStream {
+
+    private final ByteBuffer buffer;
+    private int mark;
+
+    /**
+     * Creates a stream over the remaining bytes of buffer. The buffer position and limit are not modified
+     *
+     * @param buffer {@link ByteBuffer}
+     */
+    public SharedByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = Objects.requireNonNull(buffer).slice();
+    }
+
+    @Override
+    public int read() {
+        return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        Objects.checkFromIndexSize(off, len, b.length);
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+
+        var n = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+
+        if (n <= 0) {
+            return 0;
+        }
+
+        var k = (int) Math.min(n, this.buffer.remaining());
+        this.buffer.position(this.buffer.position() + k);
+        return k;
+    }
+
+    @Override
+    public int available() {
+        return this.buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        this.mark = this.buffer.position();
+    }
+
+    @Override
+    public synchronized void reset() {
+        this.buffer.position(this.mark);
+    }
+
+    @Override
+    public long getPosition() {
+        return this.buffer.position();
+    }
+
+    @Override
+    public InputStream newStream(long start, long end) {
+
+        if (start < 0) {
+            throw new IllegalArgumentException("start < 0");
+        }
+
+        if (end == -1) {
+            end = this.buffer.limit();
+        }
+
+        var slice = this.buffer.duplicate();
+        slice.limit((int) end).position((int) start);
+        return new SharedByteBufferInputStream(slice);
+    }
+
+    /**
+     * Read-only view of the bytes of this stream, from its beginning
+     *
+     * @return {@link ByteBuffer}
+     */
+    public ByteBuffer getBuffer() {
+        return this.buffer.duplicate().position(0).asReadOnlyBuffer();
+    }
+}
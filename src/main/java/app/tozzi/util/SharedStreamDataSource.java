@@ -0,0 +1,103 @@
+package app.tozzi.util;
+
+import jakarta.activation.DataSource;
+import jakarta.mail.internet.SharedInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link DataSource} over a {@link SharedInputStream}: every {@link #getInputStream()} call returns a new slice of the shared source, no data is copied
+ *
+ * @author Biagio Tozzi
+ */
+public class SharedStreamDataSource implements DataSource {
+
+    private final SharedInputStream source;
+    private final String contentType;
+    private final String name;
+    private volatile long size = -1;
+
+    public SharedStreamDataSource(SharedInputStream source, String contentType, String name) {
+        this.source = source;
+        this.contentType = contentType;
+        this.name = name;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return this.source.newStream(0, -1);
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Read-only data source");
+    }
+
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Shared source of this data source
+     *
+     * @return {@link SharedInputStream}
+     */
+    public SharedInputStream getSource() {
+        return this.source;
+    }
+
+    /**
+     * Size of the content, computed once without reading it: from the slice bounds of a buffer source, by skipping to the end of any other source
+     *
+     * @return size in bytes
+     * @throws IOException
+     */
+    public long getSize() throws IOException {
+
+        if (this.size < 0) {
+            this.size = computeSize();
+        }
+
+        return this.size;
+    }
+
+    private long computeSize() throws IOException {
+
+        if (this.source instanceof SharedByteBufferInputStream sharedByteBufferInputStream) {
+            return sharedByteBufferInputStream.getBuffer().remaining();
+        }
+
+        try (var inputStream = getInputStream()) {
+
+            // available() is exact for in-memory sources only: file sources are skipped to the end
+            if (inputStream instanceof ByteArrayInputStream) {
+                return inputStream.available();
+            }
+
+            var size = 0L;
+
+            while (true) {
+                var skipped = inputStream.skip(Long.MAX_VALUE);
+
+                if (skipped > 0) {
+                    size += skipped;
+
+                } else if (inputStream.read() != -1) {
+                    size++;
+
+                } else {
+                    return size;
+                }
+            }
+        }
+    }
+}
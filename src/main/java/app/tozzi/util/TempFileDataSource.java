@@ -0,0 +1,85 @@
+package app.tozzi.util;
+
+import jakarta.activation.DataSource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * {@link DataSource} over a temporary file, used for contents too large to be kept in memory.<br>
+ * The file is deleted by {@link #close()}: the content cannot be read afterwards
+ *
+ * @author Biagio Tozzi
+ */
+public class TempFileDataSource implements DataSource, Closeable {
+
+    private final Path file;
+    private final String contentType;
+    private final String name;
+    private volatile boolean closed;
+
+    public TempFileDataSource(Path file, String contentType, String name) {
+        this.file = file;
+        this.contentType = contentType;
+        this.name = name;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+
+        if (this.closed) {
+            throw new IOException("Data source closed");
+        }
+
+        return Files.newInputStream(this.file);
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Read-only data source");
+    }
+
+    @Override
+    public String getContentType() {
+        return this.contentType;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Temporary file of this data source
+     *
+     * @return {@link Path}
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * Size of the content
+     *
+     * @return size in bytes
+     * @throws IOException
+     */
+    public long getSize() throws IOException {
+        return Files.size(this.file);
+    }
+
+    /**
+     * Deletes the temporary file
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        Files.deleteIfExists(this.file);
+    }
+}
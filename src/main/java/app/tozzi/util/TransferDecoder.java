@@ -0,0 +1,294 @@
+package app.tozzi.util;
+
+import java.util.Arrays;
+
+/**
+ * Table-driven, incremental decoder of base64 and quoted-printable content.<br>
+ * Encoded bytes are given in chunks of any size, line breaks included: a chunk may end anywhere (in the middle of a quantum, an escape or a line break).
+ * Whole chunks are decoded in a tight loop, instead of byte by byte through {@link java.io.InputStream#read()}.<br>
+ * Not thread-safe: a decoder holds the state of one content, and can decode another one after {@link #finish(byte[], int)}.
+ *
+ * @author Biagio Tozzi
+ */
+public abstract class TransferDecoder {
+
+    private static final byte[] BASE64 = new byte[256];
+    private static final byte[] HEX = new byte[256];
+
+    static {
+        Arrays.fill(BASE64, (byte) -1);
+        var alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (var i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = (byte) i;
+        }
+
+        Arrays.fill(HEX, (byte) -1);
+        for (var i = 0; i < 10; i++) {
+            HEX['0' + i] = (byte) i;
+        }
+        for (var i = 0; i < 6; i++) {
+            HEX['A' + i] = (byte) (10 + i);
+            HEX['a' + i] = (byte) (10 + i);
+        }
+    }
+
+    /**
+     * Decoder of a content-transfer-encoding
+     *
+     * @param encoding content-transfer-encoding
+     * @return {@link TransferDecoder}, null if the encoding is not base64 or quoted-printable
+     */
+    public static TransferDecoder of(String encoding) {
+
+        if (encoding == null) {
+            return null;
+        }
+
+        if ("base64".equalsIgnoreCase(encoding.trim())) {
+            return new Base64();
+        }
+
+        if ("quoted-printable".equalsIgnoreCase(encoding.trim())) {
+            return new QuotedPrintable();
+        }
+
+        return null;
+    }
+
+    /**
+     * Maximum number of bytes the next {@link #decode(byte[], int, int, byte[], int)} of length bytes (or {@link #finish(byte[], int)}) can write
+     *
+     * @param length encoded bytes
+     * @return output capacity needed
+     */
+    public abstract int maxDecodedLength(int length);
+
+    /**
+     * Decodes src[from, to) into out starting from outPos. out must have room for {@link #maxDecodedLength(int)} bytes
+     *
+     * @return new output position
+     */
+    public abstract int decode(byte[] src, int from, int to, byte[] out, int outPos);
+
+    /**
+     * Flushes the state at the end of the content and resets the decoder
+     *
+     * @return new output position
+     */
+    public abstract int finish(byte[] out, int outPos);
+
+    /**
+     * Base64: characters outside the alphabet (line breaks included) are skipped, decoding stops at the padding
+     */
+    private static final class Base64 extends TransferDecoder {
+
+        private int accumulator;
+        private int count;
+        private boolean padded;
+
+        @Override
+        public int maxDecodedLength(int length) {
+            return (this.count + length) / 4 * 3 + 2;
+        }
+
+        @Override
+        public int decode(byte[] src, int from, int to, byte[] out, int outPos) {
+            var i = from;
+
+            while (i < to && !this.padded) {
+
+                // whole quanta, up to the next line break or invalid character
+                if (this.count == 0) {
+                    while (i + 4 <= to) {
+                        int a = BASE64[src[i] & 0xFF], b = BASE64[src[i + 1] & 0xFF], c = BASE64[src[i + 2] & 0xFF], d = BASE64[src[i + 3] & 0xFF];
+
+                        if ((a | b | c | d) < 0) {
+                            break;
+                        }
+
+                        var value = a << 18 | b << 12 | c << 6 | d;
+                        out[outPos++] = (byte) (value >> 16);
+                        out[outPos++] = (byte) (value >> 8);
+                        out[outPos++] = (byte) value;
+                        i += 4;
+                    }
+
+                    if (i == to) {
+                        break;
+                    }
+                }
+
+                var b = src[i++];
+
+                if (b == '=') {
+                    outPos = finish(out, outPos);
+                    this.padded = true;
+                    break;
+                }
+
+                var v = BASE64[b & 0xFF];
+                if (v < 0) {
+                    continue;
+                }
+
+                this.accumulator = this.accumulator << 6 | v;
+                if (++this.count == 4) {
+                    out[outPos++] = (byte) (this.accumulator >> 16);
+                    out[outPos++] = (byte) (this.accumulator >> 8);
+                    out[outPos++] = (byte) this.accumulator;
+                    this.accumulator = 0;
+                    this.count = 0;
+                }
+            }
+
+            return outPos;
+        }
+
+        @Override
+        public int finish(byte[] out, int outPos) {
+
+            if (this.count == 2) {
+                out[outPos++] = (byte) (this.accumulator >> 4);
+
+            } else if (this.count == 3) {
+                out[outPos++] = (byte) (this.accumulator >> 10);
+                out[outPos++] = (byte) (this.accumulator >> 2);
+            }
+
+            this.accumulator = 0;
+            this.count = 0;
+            this.padded = false;
+            return outPos;
+        }
+    }
+
+    /**
+     * Quoted-printable: escapes are decoded, soft line breaks removed, trailing spaces of every line dropped. Malformed escapes are kept as they are, as the Angus decoder does
+     */
+    private static final class QuotedPrintable extends TransferDecoder {
+
+        private static final int TEXT = 0;
+        private static final int ESCAPE = 1;
+        private static final int ESCAPE_DIGIT = 2;
+        private static final int SOFT_BREAK_CR = 3;
+
+        private int state = TEXT;
+        private byte digit;
+        private int spaces;
+
+        @Override
+        public int maxDecodedLength(int length) {
+            return length + this.spaces + 2;
+        }
+
+        @Override
+        public int decode(byte[] src, int from, int to, byte[] out, int outPos) {
+            var i = from;
+
+            while (i < to) {
+                var b = src[i];
+
+                switch (this.state) {
+
+                    case TEXT -> {
+
+                        // plain text run
+                        if (this.spaces == 0) {
+                            while (i < to && (b = src[i]) != '=' && b != ' ') {
+                                out[outPos++] = b;
+                                i++;
+                            }
+
+                            if (i == to) {
+                                continue;
+                            }
+                        }
+
+                        if (b == ' ') {
+                            this.spaces++;
+
+                        } else if (b == '\r' || b == '\n') {
+                            this.spaces = 0;
+                            out[outPos++] = b;
+
+                        } else {
+                            outPos = flushSpaces(out, outPos);
+
+                            if (b == '=') {
+                                this.state = ESCAPE;
+
+                            } else {
+                                out[outPos++] = b;
+                            }
+                        }
+
+                        i++;
+                    }
+
+                    case ESCAPE -> {
+
+                        if (HEX[b & 0xFF] >= 0) {
+                            this.digit = b;
+                            this.state = ESCAPE_DIGIT;
+                            i++;
+
+                        } else if (b == '\r' || b == '\n') {
+                            this.state = b == '\r' ? SOFT_BREAK_CR : TEXT;
+                            i++;
+
+                        } else {
+                            out[outPos++] = '=';
+                            this.state = TEXT;
+                        }
+                    }
+
+                    case ESCAPE_DIGIT -> {
+                        var low = HEX[b & 0xFF];
+
+                        if (low >= 0) {
+                            out[outPos++] = (byte) (HEX[this.digit & 0xFF] << 4 | low);
+                            i++;
+
+                        } else {
+                            out[outPos++] = '=';
+                            out[outPos++] = this.digit;
+                        }
+
+                        this.state = TEXT;
+                    }
+
+                    default -> {
+                        this.state = TEXT;
+
+                        if (b == '\n') {
+                            i++;
+                        }
+                    }
+                }
+            }
+
+            return outPos;
+        }
+
+        @Override
+        public int finish(byte[] out, int outPos) {
+
+            // a lone "=" at the end is dropped
+            if (this.state == ESCAPE_DIGIT) {
+                out[outPos++] = '=';
+                out[outPos++] = this.digit;
+            }
+
+            this.state = TEXT;
+            this.spaces = 0;
+            return outPos;
+        }
+
+        private int flushSpaces(byte[] out, int outPos) {
+            Arrays.fill(out, outPos, outPos + this.spaces, (byte) ' ');
+            outPos += this.spaces;
+            this.spaces = 0;
+            return outPos;
+        }
+    }
+}
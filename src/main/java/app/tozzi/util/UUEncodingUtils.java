@@ -119,7 +119,8 @@ public class UUEncodingUtils {
                 try (var is = new ByteArrayInputStream(content.getBytes())) {
                     fileName = getAttachmentName(subString, attachments);
                     isDecoded = MimeMessageUtils.decodeStream(is, "uuencode");
-                    attachments.add(Attachment.builder().name(fileName).dataSource(IOUtils.createDataSource(isDecoded, fileName)).build());
+                    var decoded = IOUtils.getContent(isDecoded);
+                    attachments.add(Attachment.builder().name(fileName).dataSource(IOUtils.createDataSource(decoded, fileName)).decodedSize(decoded.length).decodedSizeExact(true).build());
                 }
             }
 
@@ -129,12 +130,16 @@ public class UUEncodingUtils {
 
     private static boolean internalContainsEncodedAttachments(String content) {
 
-        try (var reader = new BufferedReader(new StringReader(content))) {
-            var firstLine = reader.readLine();
+        try {
+            var lines = content.lines().iterator();
+            var firstLine = lines.hasNext() ? lines.next() : null;
             if (firstLine == null || !firstLine.regionMatches(false, 0, "begin ", 0, 6))
                 return false;
 
-            var lastLine = reader.lines().reduce((first, second) -> second).orElse(null);
+            String lastLine = null;
+            while (lines.hasNext())
+                lastLine = lines.next();
+
             if (lastLine == null || !lastLine.regionMatches(false, 0, "end", 0, 3))
                 return false;
 
@@ -169,8 +174,8 @@ public class UUEncodingUtils {
 
     private static String getAttachmentName(String content, List<Attachment> attachments) {
 
-        try (var reader = new BufferedReader(new StringReader(content))) {
-            return reader.readLine().substring(9).trim();
+        try {
+            return content.lines().findFirst().orElseThrow().substring(9).trim();
 
         } catch (Exception e) {
             log.error("Error during reading file name", e);
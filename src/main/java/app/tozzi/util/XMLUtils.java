@@ -5,6 +5,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.util.HashMap;
@@ -28,8 +29,21 @@ public class XMLUtils {
      * @throws XPathExpressionException
      */
     public static Optional<String> getAttribute(Document doc, String path, String attributeName) throws XPathExpressionException {
+        return getAttribute(doc, compile(path), attributeName);
+    }
+
+    /**
+     * Extracts attribute value from {@link Document}
+     *
+     * @param doc document
+     * @param expression compiled path
+     * @param attributeName attribute
+     * @return attribute value
+     * @throws XPathExpressionException
+     */
+    public static Optional<String> getAttribute(Document doc, XPathExpression expression, String attributeName) throws XPathExpressionException {
 
-        return getNodes(doc, path).stream()
+        return getNodes(doc, expression).stream()
                 .findFirst()
                 .flatMap(node -> {
                     var attributes = node.getAttributes();
@@ -53,8 +67,21 @@ public class XMLUtils {
      * @throws XPathExpressionException
      */
     public static Map<String, String> getTextAndAttribute(Document document, String path, String attribute) throws XPathExpressionException {
+        return getTextAndAttribute(document, compile(path), attribute);
+    }
+
+    /**
+     * Extracts text content and node value of attribute from {@link Document}
+     *
+     * @param document document
+     * @param expression compiled path
+     * @param attribute attribute
+     * @return text and attribute
+     * @throws XPathExpressionException
+     */
+    public static Map<String, String> getTextAndAttribute(Document document, XPathExpression expression, String attribute) throws XPathExpressionException {
         var result = new HashMap<String, String>();
-        var nodes = getNodes(document, path);
+        var nodes = getNodes(document, expression);
 
         nodes.forEach(node -> {
             var value = node.getTextContent();
@@ -82,15 +109,31 @@ public class XMLUtils {
      * @throws XPathExpressionException
      */
     public static Optional<String> getTextContent(Document document, String path) throws XPathExpressionException {
-        return getNodes(document, path).stream()
+        return getTextContent(document, compile(path));
+    }
+
+    /**
+     * Extracts text content from {@link Document}
+     *
+     * @param document document
+     * @param expression compiled path
+     * @return text attribute
+     * @throws XPathExpressionException
+     */
+    public static Optional<String> getTextContent(Document document, XPathExpression expression) throws XPathExpressionException {
+        return getNodes(document, expression).stream()
                 .findFirst()
                 .map(Node::getTextContent)
                 .or(Optional::empty);
     }
 
-    private static List<Node> getNodes(Document document, String path) throws XPathExpressionException {
-        var expr = XPathFactory.newInstance().newXPath().compile(path);
-        var nodes = (NodeList) expr.evaluate(document, XPathConstants.NODESET);
+    // compiled on every call: the parser compiles through the cache of its ParserContext
+    private static XPathExpression compile(String path) throws XPathExpressionException {
+        return XPathFactory.newInstance().newXPath().compile(path);
+    }
+
+    private static List<Node> getNodes(Document document, XPathExpression expression) throws XPathExpressionException {
+        var nodes = (NodeList) expression.evaluate(document, XPathConstants.NODESET);
         return IntStream.range(0, nodes.getLength())
                 .mapToObj(nodes::item)
                 .toList();
@@ -1,9 +1,47 @@
 package app.tozzi;
 
+import app.tozzi.core.AttachmentSink;
+import app.tozzi.core.AttachmentStore;
+import app.tozzi.core.CancellationToken;
+import app.tozzi.core.FileSystemAttachmentSink;
+import app.tozzi.core.InMemoryAttachmentSink;
+import app.tozzi.core.ParseHandler;
 import app.tozzi.model.*;
+import app.tozzi.model.exception.MailParserException;
+import app.tozzi.model.exception.ParseCancelledException;
+import app.tozzi.model.exception.ResourceLimitExceededException;
+import app.tozzi.util.BlobDataSource;
+import app.tozzi.util.PartDataSource;
+import app.tozzi.util.PathDataSource;
+import app.tozzi.util.SharedByteBufferInputStream;
+import app.tozzi.util.SharedStreamDataSource;
+import app.tozzi.util.TempFileDataSource;
+import jakarta.mail.internet.MimePartDataSource;
+import jakarta.mail.util.ByteArrayDataSource;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -226,6 +264,15 @@ public class MailParserTest {
         }
     }
 
+    @Test
+    public void deliveryStatusBudgetTest() throws IOException {
+        var options = ParseOptions.builder().skipBodies(true).skipAttachments(true).budget(ResourceBudget.builder().maxMessageBytes(10).build()).build();
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Delivery Status Notification (Failure).eml")) {
+            assertEquals(ResourceLimitExceededException.Limit.MESSAGE_BYTES, assertThrows(ResourceLimitExceededException.class, () -> MailParser.getInstance(options).parse(inputStream)).getLimit());
+        }
+    }
+
     @Test
     public void pecReceipt_1() throws IOException {
         try (var inputStream = getClass().getClassLoader().getResourceAsStream("accettazione.eml")) {
@@ -322,4 +369,797 @@ public class MailParserTest {
             assertEquals("sender@fakepec.it", receipt.getPec().getEnvelope().getTo().get(0).getEmail());
         }
     }
+
+    @Test
+    public void classifyMailTest() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var classification = MailParser.getInstance().classify(inputStream);
+            assertNotNull(classification);
+            assertEquals(ParsedEntityType.MAIL, classification.getType());
+            assertEquals("EA+dAJ_-oQ-6nyBKVWEFWJyq2Qx_sboF=k9VrediOGf8OO+v7rg@mail.gmail.com", classification.getMessageID());
+            assertNull(classification.getTransportHeaderValue());
+            assertNull(classification.getReceiptHeaderValue());
+        }
+    }
+
+    @Test
+    public void classifyStreamPositionTest() throws IOException {
+        var eml = "From: sender@test.it\r\nSubject: Position\r\nMessage-ID: <position@test.it>\r\n\r\nBody line\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        // the rest of the message is left to the caller
+        var inputStream = new ByteArrayInputStream(eml);
+        assertEquals("position@test.it", MailParser.getInstance().classify(inputStream).getMessageID());
+        assertEquals("Body line\r\n", new String(inputStream.readAllBytes(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void classifyPECReceiptTest() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("accettazione.eml")) {
+            var classification = MailParser.getInstance().classify(inputStream);
+            assertNotNull(classification);
+            assertEquals(ParsedEntityType.PEC_RECEIPT, classification.getType());
+            assertEquals("accettazione", classification.getReceiptHeaderValue());
+            assertEquals("<SN05IE$951DEC16C1CFD3E4FD8FF1B1D24A99AE@fakepec.it>", classification.getReferenceHeaderValue());
+            assertEquals("opec210312.20241115182038.288127.606.1.771.53@fakepec.it", classification.getMessageID());
+        }
+    }
+
+    @Test
+    public void parseOptionsTest_1() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var pe = MailParser.getInstance(ParseOptions.builder().skipAttachments(true).maxBodySize(5).build()).parse(inputStream);
+            assertInstanceOf(Mail.class, pe);
+            var mail = (Mail) pe;
+            assertNotNull(mail.getBodyTXT());
+            assertEquals(5, mail.getBodyTXT().length());
+            assertNotNull(mail.getBodyHTML());
+            assertTrue(mail.getBodyHTML().length() <= 5);
+            assertEquals(1, mail.getAttachments().size());
+            assertEquals("640px-Flag_of_Italy.svg.png", mail.getAttachments().get(0).getName());
+            assertEquals("<ii_m3it0i7x0>", mail.getAttachments().get(0).getContentID());
+            assertNull(mail.getAttachments().get(0).getDataSource());
+        }
+    }
+
+    @Test
+    public void parseOptionsTest_2() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var pe = MailParser.getInstance(ParseOptions.builder().metadataOnly(true).build()).parse(inputStream);
+            assertInstanceOf(Mail.class, pe);
+            var mail = (Mail) pe;
+            assertEquals("EA+dAJ_-oQ-6nyBKVWEFWJyq2Qx_sboF=k9VrediOGf8OO+v7rg@mail.gmail.com", mail.getMessageID());
+            assertEquals("test@tozzi.app", mail.getFrom().get(0).getEmail());
+            assertNull(mail.getBodyTXT());
+            assertNull(mail.getBodyHTML());
+            assertTrue(mail.getAttachments().isEmpty());
+        }
+    }
+
+    @Test
+    public void parseOptionsTest_3() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("consegna.eml")) {
+            var pe = MailParser.getInstance(ParseOptions.builder().metadataOnly(true).build()).parse(inputStream);
+            assertInstanceOf(PECReceipt.class, pe);
+            var receipt = (PECReceipt) pe;
+            assertEquals(CertificateData.PostaCertType.ERRORE_CONSEGNA, receipt.getCertificateData().getType());
+            assertNull(receipt.getPec().getEnvelope().getBodyTXT());
+            assertNull(receipt.getPec().getOriginalMessage());
+        }
+    }
+
+    @Test
+    public void lazyMailTest() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var pe = MailParser.getInstance(ParseOptions.builder().lazy(true).build()).parse(inputStream);
+            assertInstanceOf(LazyMail.class, pe);
+            var mail = (Mail) pe;
+            assertEquals("EA+dAJ_-oQ-6nyBKVWEFWJyq2Qx_sboF=k9VrediOGf8OO+v7rg@mail.gmail.com", mail.getMessageID());
+            assertTrue(mail.getBodyTXT().contains("Simple Mail!"));
+            assertTrue(mail.getBodyHTML().contains("<div>Simple Mail!</div>"));
+            assertEquals(1, mail.getAttachments().size());
+            assertEquals("640px-Flag_of_Italy.svg.png", mail.getAttachments().get(0).getName());
+        }
+    }
+
+    @Test
+    public void lazyFailureTest() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var options = ParseOptions.builder().lazy(true).budget(ResourceBudget.builder().maxAttachmentBytes(512).build()).build();
+            var mail = (Mail) MailParser.getInstance(options).parse(inputStream);
+
+            // the resolution is not run again over the partially populated mail
+            var failure = assertThrows(ResourceLimitExceededException.class, mail::getAttachments);
+            assertSame(failure, assertThrows(ResourceLimitExceededException.class, mail::getAttachments));
+            assertSame(failure, assertThrows(ResourceLimitExceededException.class, mail::getBodyTXT));
+            mail.close();
+        }
+    }
+
+    @Test
+    public void lazyPECReceiptTest() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("consegna.eml")) {
+            var pe = MailParser.getInstance(ParseOptions.builder().lazy(true).build()).parse(inputStream);
+            assertInstanceOf(LazyPECReceipt.class, pe);
+            var receipt = (PECReceipt) pe;
+            assertEquals("AVVISO DI MANCATA CONSEGNA: Test PEC", receipt.getPec().getEnvelope().getSubject());
+            assertEquals("errore-consegna", receipt.getPec().getReceiptHeaderValue());
+            assertEquals(CertificateData.PostaCertType.ERRORE_CONSEGNA, receipt.getCertificateData().getType());
+            assertEquals(CertificateData.PECError.NO_DEST, receipt.getPec().getCertificateData().getError());
+            assertNotNull(receipt.getPec().getDatiCert());
+            assertNull(receipt.getPec().getOriginalMessage());
+        }
+    }
+
+    @Test
+    public void parsePathTest() throws URISyntaxException {
+        var pe = MailParser.getInstance().parse(Path.of(getClass().getClassLoader().getResource("Test - Simple Mail.eml").toURI()));
+        assertInstanceOf(Mail.class, pe);
+        var mail = (Mail) pe;
+        assertEquals("EA+dAJ_-oQ-6nyBKVWEFWJyq2Qx_sboF=k9VrediOGf8OO+v7rg@mail.gmail.com", mail.getMessageID());
+        assertTrue(mail.getBodyHTML().contains("<div>Simple Mail!</div>"));
+        assertEquals(1, mail.getAttachments().size());
+        assertEquals("640px-Flag_of_Italy.svg.png", mail.getAttachments().get(0).getName());
+    }
+
+    @Test
+    public void parseByteArrayTest() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Delivery Status Notification (Failure).eml")) {
+            var eml = inputStream.readAllBytes();
+            var buffer = new byte[eml.length + 20];
+            System.arraycopy(eml, 0, buffer, 10, eml.length);
+            var pe = MailParser.getInstance().parse(buffer, 10, eml.length);
+            assertInstanceOf(Mail.class, pe);
+            var mail = (Mail) pe;
+            assertEquals("773764b2.050a0220.544c6.2d4b.GMR@mx.google.com", mail.getMessageID());
+            assertTrue(mail.isHasDeliveryStatus());
+            assertTrue(mail.getAttachments().stream().anyMatch(a -> a.getDataSource() instanceof SharedStreamDataSource));
+        }
+    }
+
+    @Test
+    public void parseDirectByteBufferTest() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("accettazione.eml")) {
+            var eml = inputStream.readAllBytes();
+            var buffer = ByteBuffer.allocateDirect(eml.length);
+            buffer.put(eml).flip();
+            var pe = MailParser.getInstance().parse(buffer);
+            assertInstanceOf(PECReceipt.class, pe);
+            assertEquals(CertificateData.PostaCertType.ACCETTAZIONE, ((PECReceipt) pe).getCertificateData().getType());
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test
+    public void parseHandlerTest() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var events = new ArrayList<String>();
+            var pe = MailParser.getInstance().parse(inputStream, new ParseHandler() {
+
+                @Override
+                public void onHeaders(Mail mail) {
+                    events.add("headers:" + mail.getMessageID());
+                }
+
+                @Override
+                public void onBodyTXT(InputStream body, String charset) throws IOException {
+                    assertEquals("UTF-8", charset);
+                    assertTrue(new String(body.readAllBytes(), charset).contains("Simple Mail!"));
+                    events.add("txt");
+                }
+
+                @Override
+                public void onBodyHTML(InputStream body, String charset) throws IOException {
+                    assertTrue(new String(body.readAllBytes(), charset).contains("<div>Simple Mail!</div>"));
+                    events.add("html");
+                }
+
+                @Override
+                public void onAttachment(Attachment attachment, InputStream content) throws IOException {
+                    assertNull(attachment.getDataSource());
+                    assertEquals("image/png", attachment.getContentType());
+                    assertTrue(content.readAllBytes().length > 0);
+                    events.add("attachment:" + attachment.getName());
+                }
+            });
+
+            assertInstanceOf(Mail.class, pe);
+            var mail = (Mail) pe;
+            assertNull(mail.getBodyTXT());
+            assertNull(mail.getBodyHTML());
+            assertTrue(mail.getAttachments().isEmpty());
+            assertEquals(List.of("headers:EA+dAJ_-oQ-6nyBKVWEFWJyq2Qx_sboF=k9VrediOGf8OO+v7rg@mail.gmail.com", "txt", "html", "attachment:640px-Flag_of_Italy.svg.png"), events);
+        }
+    }
+
+    @Test
+    public void parseHandlerPECReceiptTest() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("accettazione.eml")) {
+            var certificateData = new ArrayList<CertificateData>();
+            var pe = MailParser.getInstance().parse(inputStream, new ParseHandler() {
+
+                @Override
+                public void onCertificateData(CertificateData data) {
+                    certificateData.add(data);
+                }
+            });
+
+            assertInstanceOf(PECReceipt.class, pe);
+            assertEquals(1, certificateData.size());
+            assertEquals(CertificateData.PostaCertType.ACCETTAZIONE, certificateData.get(0).getType());
+        }
+    }
+
+    @Test
+    public void pecOriginalMessageTest() throws IOException {
+        var eml = """
+                From: posta-certificata@fakepec.it
+                To: rec@fakepec.it
+                Subject: POSTA CERTIFICATA: Test PEC
+                Message-ID: <opec.envelope@fakepec.it>
+                X-Trasporto: posta-certificata
+                MIME-Version: 1.0
+                Content-Type: multipart/mixed; boundary="outer"
+
+                --outer
+                Content-Type: text/plain; charset="UTF-8"
+
+                Messaggio di posta certificata
+                --outer
+                Content-Type: message/rfc822; name="postacert.eml"
+                Content-Disposition: inline; filename="postacert.eml"
+
+                From: sender@fakepec.it
+                To: rec@fakepec.it
+                Subject: Test PEC
+                Message-ID: <original@fakepec.it>
+                MIME-Version: 1.0
+                Content-Type: multipart/mixed; boundary="inner"
+
+                --inner
+                Content-Type: text/plain; charset="UTF-8"
+
+                Original body
+                --inner
+                Content-Type: text/plain; name="note.txt"
+                Content-Disposition: attachment; filename="note.txt"
+
+                Sample attachment
+                --inner--
+                --outer
+                Content-Type: application/xml; name="daticert.xml"
+                Content-Disposition: inline; filename="daticert.xml"
+                Content-Transfer-Encoding: base64
+
+                PD94bWwgdmVyc2lvbj0iMS4wIiBlbmNvZGluZz0iVVRGLTgiPz4KPHBvc3RhY2VydCB0aXBvPSJhY2NldHRhemlvbmUiIGVycm9yZT0ibmVzc3VubyI+CiAgICA8aW50ZXN0YXppb25lPgogICAgICAgIDxtaXR0ZW50ZT5zZW5kZXJAZmFrZXBlYy5pdDwvbWl0dGVudGU+CiAgICAgICAgPGRlc3RpbmF0YXJpIHRpcG89ImNlcnRpZmljYXRvIj5yZWNAZmFrZXBlYy5pdDwvZGVzdGluYXRhcmk+CiAgICAgICAgPHJpc3Bvc3RlPnNlbmRlckBmYWtlcGVjLml0PC9yaXNwb3N0ZT4KICAgICAgICA8b2dnZXR0bz5UZXN0IFBFQzwvb2dnZXR0bz4KICAgIDwvaW50ZXN0YXppb25lPgogICAgPGRhdGk+CiAgICAgICAgPGdlc3RvcmUtZW1pdHRlbnRlPkZBS0VQRUMgUEVDIFMucC5BLjwvZ2VzdG9yZS1lbWl0dGVudGU+CiAgICAgICAgPGRhdGEgem9uYT0iKzAxMDAiPgogICAgICAgICAgICA8Z2lvcm5vPjE1LzExLzIwMjQ8L2dpb3Jubz4KICAgICAgICAgICAgPG9yYT4xODoyMDozODwvb3JhPgogICAgICAgIDwvZGF0YT4KICAgICAgICA8aWRlbnRpZmljYXRpdm8+b3BlYzIxMDMxMi4yMDI0MTExNTE4MjAzOC4yODgxMjcuNjA2LjEuNTNAZmFrZXBlYy5pdDwvaWRlbnRpZmljYXRpdm8+CiAgICAgICAgPG1zZ2lkPiZsdDtTTjA1SUUkOTUxREVDMTZDMUNGRDNFNEZEOEZGMUIxRDI0QTk5QUVAZmFrZXBlYy5pdCZndDs8L21zZ2lkPgogICAgPC9kYXRpPgo8L3Bvc3RhY2VydD4K
+                --outer--
+                """.getBytes(StandardCharsets.US_ASCII);
+
+        var pe = MailParser.getInstance().parse(eml);
+        assertInstanceOf(PEC.class, pe);
+        var pec = (PEC) pe;
+        assertInstanceOf(MimePartDataSource.class, pec.getPostaCert());
+        assertEquals("postacert.eml", pec.getPostaCert().getName());
+        assertTrue(new String(pec.getPostaCert().getInputStream().readAllBytes(), StandardCharsets.US_ASCII).contains("Subject: Test PEC"));
+        assertNotNull(pec.getOriginalMessage());
+        assertEquals("Test PEC", pec.getOriginalMessage().getSubject());
+        assertEquals("original@fakepec.it", pec.getOriginalMessage().getMessageID());
+        assertTrue(pec.getOriginalMessage().getBodyTXT().contains("Original body"));
+        assertEquals(1, pec.getOriginalMessage().getAttachments().size());
+        assertInstanceOf(SharedStreamDataSource.class, pec.getOriginalMessage().getAttachments().get(0).getDataSource());
+        assertNotNull(pec.getCertificateData());
+    }
+
+    @Test
+    public void resourceBudgetTest() throws IOException {
+        assertEquals(ResourceLimitExceededException.Limit.DEPTH, parseWithBudget(ResourceBudget.builder().maxDepth(2).build()).getLimit());
+        assertEquals(ResourceLimitExceededException.Limit.PARTS, parseWithBudget(ResourceBudget.builder().maxParts(3).build()).getLimit());
+        assertEquals(ResourceLimitExceededException.Limit.HEADERS, parseWithBudget(ResourceBudget.builder().maxHeaders(5).build()).getLimit());
+        assertEquals(ResourceLimitExceededException.Limit.ATTACHMENT_BYTES, parseWithBudget(ResourceBudget.builder().maxAttachmentBytes(512).build()).getLimit());
+        assertEquals(ResourceLimitExceededException.Limit.MESSAGE_BYTES, parseWithBudget(ResourceBudget.builder().maxMessageBytes(64).build()).getLimit());
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var budget = ResourceBudget.builder().maxDepth(3).maxParts(5).maxHeaders(50).maxAttachmentBytes(10 * 1024 * 1024).maxMessageBytes(10 * 1024 * 1024).build();
+            var mail = (Mail) MailParser.getInstance(ParseOptions.builder().budget(budget).build()).parse(inputStream);
+            assertEquals(1, mail.getAttachments().size());
+        }
+    }
+
+    private ResourceLimitExceededException parseWithBudget(ResourceBudget budget) throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var parser = MailParser.getInstance(ParseOptions.builder().budget(budget).build());
+            return assertThrows(ResourceLimitExceededException.class, () -> parser.parse(inputStream));
+        }
+    }
+
+    @Test
+    public void cancellationTest() throws IOException {
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var token = CancellationToken.create();
+            token.cancel();
+            var e = assertThrows(ParseCancelledException.class, () -> MailParser.getInstance().parse(inputStream, token));
+            assertEquals(ParseCancelledException.Reason.CANCELLED, e.getReason());
+        }
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("accettazione.eml")) {
+            var e = assertThrows(ParseCancelledException.class, () -> MailParser.getInstance().parse(inputStream, CancellationToken.withTimeout(Duration.ZERO)));
+            assertEquals(ParseCancelledException.Reason.DEADLINE_EXCEEDED, e.getReason());
+        }
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var token = CancellationToken.create();
+            var attachments = new ArrayList<Attachment>();
+            assertThrows(ParseCancelledException.class, () -> MailParser.getInstance().parse(inputStream, new ParseHandler() {
+
+                @Override
+                public void onBodyTXT(InputStream body, String charset) {
+                    token.cancel();
+                }
+
+                @Override
+                public void onAttachment(Attachment attachment, InputStream content) {
+                    attachments.add(attachment);
+                }
+            }, token));
+            assertTrue(attachments.isEmpty());
+        }
+    }
+
+    @Test
+    public void lenientTest() {
+        var eml = """
+                From: posta-certificata@fakepec.it
+                To: rec@fakepec.it
+                Subject: POSTA CERTIFICATA: Test PEC
+                Message-ID: <lenient.envelope@fakepec.it>
+                X-Trasporto: posta-certificata
+                MIME-Version: 1.0
+                Content-Type: multipart/mixed; boundary="outer"
+
+                --outer
+                Content-Type: text/plain; charset="UTF-8"
+
+                Messaggio di posta certificata
+                --outer
+                Content-Type: message/rfc822; name="postacert.eml"
+                Content-Disposition: inline; filename="postacert.eml"
+
+                From: sender@fakepec.it
+                To: rec@fakepec.it
+                Subject: Test PEC
+                Message-ID: <original@fakepec.it>
+                MIME-Version: 1.0
+                Content-Type: text/plain; charset="UTF-8"
+
+                Original body
+                --outer
+                Content-Type: application/xml; name="daticert.xml"
+                Content-Disposition: inline; filename="daticert.xml"
+
+                <?xml version="1.0" encoding="UTF-8"?>
+                <postacert tipo="accettazione" errore="nessuno">
+                    <intestazione>
+                        <mittente>sender@fakepec.it</mittente>
+                        <destinatari tipo="certificato">rec@fakepec.it</destinatari>
+                        <oggetto>Test PEC</oggetto>
+                    </intestazione>
+                    <dati>
+                        <gestore-emittente>FAKEPEC PEC S.p.A.</gestore-emittente>
+                        <data zona="+0100">
+                            <giorno>15/11/2024</giorno>
+                            <ora>18:20:38</ora>
+                        </data>
+                        <identificativo>opec.lenient@fakepec.it</identificativo>
+                    </dati>
+                </postacert>
+                --outer
+                Content-Type: application/octet-stream; name="broken.bin"
+                Content-Disposition: attachment; filename="broken.bin"
+                Content-Transfer-Encoding: x-unknown
+
+                AAAA
+                --outer--
+                """.getBytes(StandardCharsets.US_ASCII);
+
+        assertThrows(MailParserException.class, () -> MailParser.getInstance().parse(eml));
+
+        var pec = (PEC) MailParser.getInstance(ParseOptions.builder().lenient(true).build()).parse(eml);
+        assertEquals("Messaggio di posta certificata", pec.getEnvelope().getBodyTXT().trim());
+        assertEquals("Test PEC", pec.getOriginalMessage().getSubject());
+        assertTrue(pec.getOriginalMessage().getDiagnostics().isEmpty());
+        assertNotNull(pec.getCertificateData());
+        assertEquals("sender@fakepec.it", pec.getCertificateData().getSender());
+        assertNull(pec.getCertificateData().getAnswers());
+        assertTrue(pec.getEnvelope().getAttachments().isEmpty());
+
+        assertEquals(2, pec.getDiagnostics().size());
+        var attachment = pec.getDiagnostics().stream().filter(d -> d.getStage() == ParseDiagnostic.Stage.ATTACHMENT).findFirst().orElseThrow();
+        assertEquals("4", attachment.getPartPath());
+        assertNotNull(attachment.getCause());
+        var datiCert = pec.getDiagnostics().stream().filter(d -> d.getStage() == ParseDiagnostic.Stage.DATICERT).findFirst().orElseThrow();
+        assertEquals("3", datiCert.getPartPath());
+        assertTrue(datiCert.getMessage().contains("risposte"));
+        assertTrue(pec.getEnvelope().getDiagnostics().isEmpty());
+    }
+
+    @Test
+    public void deepNestingTest() {
+        var levels = 300;
+        var eml = new StringBuilder("From: sender@test.it\r\nSubject: Nested\r\nMIME-Version: 1.0\r\n");
+
+        for (var i = 0; i < levels; i++) {
+            eml.append("Content-Type: multipart/mixed; boundary=\"b").append(i).append("\"\r\n\r\n--b").append(i).append("\r\n");
+        }
+
+        eml.append("Content-Type: text/plain\r\n\r\nDeep body\r\n");
+
+        for (var i = levels - 1; i >= 0; i--) {
+            eml.append("--b").append(i).append("--\r\n");
+        }
+
+        var bytes = eml.toString().getBytes(StandardCharsets.US_ASCII);
+        var mail = (Mail) MailParser.getInstance().parse(bytes);
+        assertEquals("Deep body", mail.getBodyTXT().trim());
+
+        var parser = MailParser.getInstance(ParseOptions.builder().budget(ResourceBudget.builder().maxDepth(levels).build()).build());
+        assertEquals(ResourceLimitExceededException.Limit.DEPTH, assertThrows(ResourceLimitExceededException.class, () -> parser.parse(bytes)).getLimit());
+    }
+
+    @Test
+    public void attachmentExecutorTest() throws IOException {
+        var eml = new StringBuilder("From: sender@test.it\r\nSubject: Attachments\r\nMIME-Version: 1.0\r\nContent-Type: multipart/mixed; boundary=\"b\"\r\n\r\n");
+        eml.append("--b\r\nContent-Type: text/plain\r\n\r\nBody\r\n");
+
+        for (var i = 0; i < 20; i++) {
+            eml.append("--b\r\nContent-Type: application/octet-stream; name=\"file").append(i).append(".bin\"\r\n")
+                    .append("Content-Disposition: attachment; filename=\"file").append(i).append(".bin\"\r\n")
+                    .append("Content-Transfer-Encoding: base64\r\n\r\n")
+                    .append(Base64.getMimeEncoder().encodeToString(("Attachment " + i).repeat(1000).getBytes(StandardCharsets.US_ASCII))).append("\r\n");
+        }
+
+        eml.append("--b--\r\n");
+        var bytes = eml.toString().getBytes(StandardCharsets.US_ASCII);
+        var pool = new ForkJoinPool(4);
+
+        try {
+            var mail = (Mail) MailParser.getInstance(ParseOptions.builder().attachmentExecutor(pool).build()).parse(bytes);
+            assertEquals("Body", mail.getBodyTXT().trim());
+            assertEquals(20, mail.getAttachments().size());
+
+            for (var i = 0; i < 20; i++) {
+                var attachment = mail.getAttachments().get(i);
+                assertEquals("file" + i + ".bin", attachment.getName());
+                assertEquals(("Attachment " + i).repeat(1000), new String(attachment.getDataSource().getInputStream().readAllBytes(), StandardCharsets.US_ASCII));
+            }
+
+            var budget = ResourceBudget.builder().maxMessageBytes(50 * 1000).build();
+            var parser = MailParser.getInstance(ParseOptions.builder().attachmentExecutor(pool).budget(budget).build());
+            assertEquals(ResourceLimitExceededException.Limit.MESSAGE_BYTES, assertThrows(ResourceLimitExceededException.class, () -> parser.parse(bytes)).getLimit());
+
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void spillThresholdTest(@TempDir Path directory) throws IOException {
+        byte[] expected;
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            expected = ((Mail) MailParser.getInstance().parse(inputStream)).getAttachments().get(0).getDataSource().getInputStream().readAllBytes();
+        }
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var options = ParseOptions.builder().spillThreshold(expected.length * 2L).spillDirectory(directory).build();
+            var mail = (Mail) MailParser.getInstance(options).parse(inputStream);
+            assertInstanceOf(ByteArrayDataSource.class, mail.getAttachments().get(0).getDataSource());
+        }
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var options = ParseOptions.builder().spillThreshold(100).spillDirectory(directory).build();
+            var mail = (Mail) MailParser.getInstance(options).parse(inputStream);
+            var dataSource = assertInstanceOf(TempFileDataSource.class, mail.getAttachments().get(0).getDataSource());
+            assertEquals(directory, dataSource.getFile().getParent());
+            assertEquals(expected.length, dataSource.getSize());
+            assertArrayEquals(expected, dataSource.getInputStream().readAllBytes());
+            assertEquals("640px-Flag_of_Italy.svg.png", dataSource.getName());
+
+            mail.close();
+            assertFalse(Files.exists(dataSource.getFile()));
+            assertThrows(IOException.class, dataSource::getInputStream);
+        }
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var options = ParseOptions.builder().spillThreshold(100).spillDirectory(directory).budget(ResourceBudget.builder().maxAttachmentBytes(512).build()).build();
+            assertThrows(ResourceLimitExceededException.class, () -> MailParser.getInstance(options).parse(inputStream));
+        }
+
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void deferAttachmentDecodingTest() throws IOException, URISyntaxException {
+        var eml = Path.of(getClass().getClassLoader().getResource("Test - Simple Mail.eml").toURI());
+        var expected = ((Mail) MailParser.getInstance().parse(eml)).getAttachments().get(0);
+
+        var mail = (Mail) MailParser.getInstance(ParseOptions.builder().deferAttachmentDecoding(true).build()).parse(eml);
+        var attachment = mail.getAttachments().get(0);
+        var dataSource = assertInstanceOf(PartDataSource.class, attachment.getDataSource());
+        assertEquals("base64", dataSource.getEncoding());
+        assertEquals(expected.getName(), attachment.getName());
+        assertEquals(expected.getContentType(), attachment.getContentType());
+        assertEquals(expected.getContentID(), attachment.getContentID());
+
+        var content = expected.getDataSource().getInputStream().readAllBytes();
+        assertArrayEquals(content, dataSource.getInputStream().readAllBytes());
+        assertArrayEquals(content, dataSource.getInputStream().readAllBytes());
+    }
+
+    @Test
+    public void attachmentStoreTest() throws IOException {
+        var eml = """
+                From: sender@test.it
+                Subject: Duplicates
+                MIME-Version: 1.0
+                Content-Type: multipart/mixed; boundary="b"
+
+                --b
+                Content-Type: text/plain
+
+                Body
+                --b
+                Content-Type: application/pdf; name="first.pdf"
+                Content-Disposition: attachment; filename="first.pdf"
+                Content-Transfer-Encoding: base64
+
+                U2FtZSBjb250ZW50
+                --b
+                Content-Type: application/pdf; name="second.pdf"
+                Content-Disposition: attachment; filename="second.pdf"
+                Content-Transfer-Encoding: base64
+
+                U2FtZSBjb250ZW50
+                --b
+                Content-Type: application/pdf; name="other.pdf"
+                Content-Disposition: attachment; filename="other.pdf"
+                Content-Transfer-Encoding: base64
+
+                T3RoZXIgY29udGVudA==
+                --b--
+                """.getBytes(StandardCharsets.US_ASCII);
+
+        try (var store = new AttachmentStore()) {
+            var parser = MailParser.getInstance(ParseOptions.builder().attachmentStore(store).build());
+            var mail = (Mail) parser.parse(eml);
+            assertEquals(3, mail.getAttachments().size());
+            assertEquals(2, store.size());
+
+            var first = assertInstanceOf(BlobDataSource.class, mail.getAttachments().get(0).getDataSource());
+            var second = assertInstanceOf(BlobDataSource.class, mail.getAttachments().get(1).getDataSource());
+            var other = assertInstanceOf(BlobDataSource.class, mail.getAttachments().get(2).getDataSource());
+            assertEquals("first.pdf", first.getName());
+            assertEquals("second.pdf", second.getName());
+            assertEquals(first.getHash(), second.getHash());
+            assertSame(first.getContent(), second.getContent());
+            assertNotEquals(first.getHash(), other.getHash());
+            assertSame(first.getContent(), store.get(first.getHash()));
+            assertEquals("Same content", new String(second.getInputStream().readAllBytes(), StandardCharsets.US_ASCII));
+
+            var again = (Mail) parser.parse(eml);
+            assertEquals(2, store.size());
+            assertSame(first.getContent(), ((BlobDataSource) again.getAttachments().get(0).getDataSource()).getContent());
+        }
+    }
+
+    @Test
+    public void attachmentDigestsTest() throws IOException, NoSuchAlgorithmException {
+        var options = ParseOptions.builder().digestAlgorithms(new LinkedHashSet<>(List.of("SHA-256", "MD5"))).build();
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var attachment = ((Mail) MailParser.getInstance(options).parse(inputStream)).getAttachments().get(0);
+            var content = attachment.getDataSource().getInputStream().readAllBytes();
+            assertEquals(List.of("SHA-256", "MD5"), List.copyOf(attachment.getDigests().keySet()));
+            assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content)), attachment.getDigests().get("SHA-256"));
+            assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content)), attachment.getDigests().get("MD5"));
+        }
+
+        var eml = """
+                From: sender@test.it
+                Subject: Plain attachment
+                MIME-Version: 1.0
+                Content-Type: multipart/mixed; boundary="b"
+
+                --b
+                Content-Type: text/plain; name="note.txt"
+                Content-Disposition: attachment; filename="note.txt"
+
+                Sample attachment
+                --b--
+                """.getBytes(StandardCharsets.US_ASCII);
+
+        var attachment = ((Mail) MailParser.getInstance(options).parse(eml)).getAttachments().get(0);
+        assertInstanceOf(SharedStreamDataSource.class, attachment.getDataSource());
+        var content = attachment.getDataSource().getInputStream().readAllBytes();
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content)), attachment.getDigests().get("SHA-256"));
+
+        assertTrue(((Mail) MailParser.getInstance().parse(eml)).getAttachments().get(0).getDigests().isEmpty());
+    }
+
+    @Test
+    public void attachmentSizeTest() throws IOException {
+        Attachment decoded;
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            decoded = ((Mail) MailParser.getInstance().parse(inputStream)).getAttachments().get(0);
+        }
+
+        var content = decoded.getDataSource().getInputStream().readAllBytes();
+        assertEquals(content.length, decoded.getDecodedSize());
+        assertTrue(decoded.isDecodedSizeExact());
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var attachment = ((Mail) MailParser.getInstance(ParseOptions.builder().skipAttachments(true).build()).parse(inputStream)).getAttachments().get(0);
+            assertNull(attachment.getDataSource());
+            assertEquals("base64", attachment.getContentTransferEncoding());
+            assertTrue(attachment.getRawSize() > content.length);
+            assertEquals(content.length, attachment.getDecodedSize(), content.length * 0.05);
+            assertFalse(attachment.isDecodedSizeExact());
+            assertEquals(decoded.getRawSize(), attachment.getRawSize());
+        }
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var attachment = ((Mail) MailParser.getInstance(ParseOptions.builder().skipAttachments(true).exactAttachmentSizes(true).build()).parse(inputStream)).getAttachments().get(0);
+            assertEquals(content.length, attachment.getDecodedSize());
+            assertTrue(attachment.isDecodedSizeExact());
+        }
+    }
+
+    @Test
+    public void attachmentSinkTest(@TempDir Path directory) throws IOException, NoSuchAlgorithmException {
+        byte[] expected;
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            expected = ((Mail) MailParser.getInstance().parse(inputStream)).getAttachments().get(0).getDataSource().getInputStream().readAllBytes();
+        }
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var options = ParseOptions.builder().attachmentSink(new FileSystemAttachmentSink(directory)).digestAlgorithms(Set.of("SHA-256")).build();
+            var mail = (Mail) MailParser.getInstance(options).parse(inputStream);
+            var attachment = mail.getAttachments().get(0);
+            var dataSource = assertInstanceOf(PathDataSource.class, attachment.getDataSource());
+            assertEquals(directory, dataSource.getFile().getParent().getParent());
+            assertEquals("640px-Flag_of_Italy.svg.png", dataSource.getFile().getFileName().toString());
+            assertArrayEquals(expected, dataSource.getInputStream().readAllBytes());
+            assertEquals("640px-Flag_of_Italy.svg.png", attachment.getName());
+            assertEquals(expected.length, attachment.getDecodedSize());
+            assertNotNull(attachment.getDigests().get("SHA-256"));
+
+            mail.close();
+            assertTrue(Files.exists(dataSource.getFile()));
+        }
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var options = ParseOptions.builder().attachmentSink(new InMemoryAttachmentSink()).build();
+            var dataSource = ((Mail) MailParser.getInstance(options).parse(inputStream)).getAttachments().get(0).getDataSource();
+            assertInstanceOf(ByteArrayDataSource.class, dataSource);
+            assertArrayEquals(expected, dataSource.getInputStream().readAllBytes());
+        }
+
+        // the sink may close the content it reads
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            AttachmentSink sink = (attachment, content) -> {
+                try (content) {
+                    return new ByteArrayDataSource(content.readNBytes(100), attachment.getContentType());
+                }
+            };
+            var options = ParseOptions.builder().attachmentSink(sink).digestAlgorithms(Set.of("SHA-256")).build();
+            var attachment = ((Mail) MailParser.getInstance(options).parse(inputStream)).getAttachments().get(0);
+            assertArrayEquals(Arrays.copyOf(expected, 100), attachment.getDataSource().getInputStream().readAllBytes());
+            assertEquals(expected.length, attachment.getDecodedSize());
+            assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(expected)), attachment.getDigests().get("SHA-256"));
+        }
+
+        // content left unread by the sink still counts for the budget
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            AttachmentSink sink = (attachment, content) -> new ByteArrayDataSource(new byte[0], attachment.getContentType());
+            var options = ParseOptions.builder().attachmentSink(sink).budget(ResourceBudget.builder().maxAttachmentBytes(512).build()).build();
+            assertThrows(ResourceLimitExceededException.class, () -> MailParser.getInstance(options).parse(inputStream));
+        }
+    }
+
+    @Test
+    public void attachmentWriteToTest(@TempDir Path directory) throws IOException {
+        byte[] expected;
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var attachment = ((Mail) MailParser.getInstance().parse(inputStream)).getAttachments().get(0);
+            expected = attachment.getDataSource().getInputStream().readAllBytes();
+            assertEquals(expected.length, attachment.writeTo(directory.resolve("memory.png")));
+            assertArrayEquals(expected, Files.readAllBytes(directory.resolve("memory.png")));
+        }
+
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml")) {
+            var mail = (Mail) MailParser.getInstance(ParseOptions.builder().spillThreshold(100).spillDirectory(directory).build()).parse(inputStream);
+            var attachment = mail.getAttachments().get(0);
+            assertInstanceOf(TempFileDataSource.class, attachment.getDataSource());
+
+            var output = new ByteArrayOutputStream();
+            assertEquals(expected.length, attachment.writeTo(Channels.newChannel(output)));
+            assertArrayEquals(expected, output.toByteArray());
+            assertEquals(expected.length, attachment.writeTo(directory.resolve("file.png")));
+            assertArrayEquals(expected, Files.readAllBytes(directory.resolve("file.png")));
+            mail.close();
+        }
+
+        var eml = """
+                From: sender@test.it
+                Subject: Plain attachment
+                MIME-Version: 1.0
+                Content-Type: multipart/mixed; boundary="b"
+
+                --b
+                Content-Type: text/plain; name="note.txt"
+                Content-Disposition: attachment; filename="note.txt"
+
+                Sample attachment
+                --b--
+                """.getBytes(StandardCharsets.US_ASCII);
+
+        var attachment = ((Mail) MailParser.getInstance().parse(eml)).getAttachments().get(0);
+        assertInstanceOf(SharedStreamDataSource.class, attachment.getDataSource());
+        var output = new ByteArrayOutputStream();
+        attachment.writeTo(Channels.newChannel(output));
+        assertArrayEquals(attachment.getDataSource().getInputStream().readAllBytes(), output.toByteArray());
+
+        // slice of a buffer source, written straight from the buffer
+        var sliced = ((Mail) MailParser.getInstance().parse(ByteBuffer.wrap(eml))).getAttachments().get(0);
+        var slicedDataSource = assertInstanceOf(SharedStreamDataSource.class, sliced.getDataSource());
+        assertInstanceOf(SharedByteBufferInputStream.class, slicedDataSource.getInputStream());
+        assertEquals(slicedDataSource.getSize(), sliced.writeTo(directory.resolve("sliced.txt")));
+        assertArrayEquals(slicedDataSource.getInputStream().readAllBytes(), Files.readAllBytes(directory.resolve("sliced.txt")));
+
+        var skipped = ((Mail) MailParser.getInstance(ParseOptions.builder().skipAttachments(true).build()).parse(eml)).getAttachments().get(0);
+        Files.writeString(directory.resolve("skipped.txt"), "existing");
+        assertThrows(MailParserException.class, () -> skipped.writeTo(directory.resolve("skipped.txt")));
+        assertEquals("existing", Files.readString(directory.resolve("skipped.txt")));
+        assertThrows(MailParserException.class, () -> skipped.writeTo(directory.resolve("missing.txt")));
+        assertFalse(Files.exists(directory.resolve("missing.txt")));
+    }
+
+    @Test
+    public void bodyDecodingTest() {
+        var eml = """
+                From: sender@test.it
+                Subject: Bodies
+                MIME-Version: 1.0
+                Content-Type: multipart/mixed; boundary="b"
+
+                --b
+                Content-Type: text/plain; charset=ISO-8859-1
+                Content-Transfer-Encoding: quoted-printable
+
+                Perch=E8 s=EC
+                --b
+                Content-Type: text/html; charset=UTF-8
+                Content-Transfer-Encoding: base64
+
+                PGRpdj7DqDwvZGl2Pg==
+                --b
+                Content-Type: text/html; charset=UTF-8
+                Content-Transfer-Encoding: quoted-printable
+
+                <p>=C3=A0</p>
+                --b--
+                """.getBytes(StandardCharsets.US_ASCII);
+
+        var mail = (Mail) MailParser.getInstance().parse(eml);
+        assertEquals("Perchè sì", mail.getBodyTXT());
+        assertEquals("<div>è</div><p>à</p>", mail.getBodyHTML());
+
+        // preview across the HTML parts
+        mail = (Mail) MailParser.getInstance(ParseOptions.builder().maxBodySize(14).build()).parse(eml);
+        assertEquals("Perchè sì", mail.getBodyTXT());
+        assertEquals("<div>è</div><p", mail.getBodyHTML());
+
+        mail = (Mail) MailParser.getInstance(ParseOptions.builder().skipAttachments(true).maxBodySize(5).build()).parse(eml);
+        assertEquals("Perch", mail.getBodyTXT());
+        assertEquals("<div>", mail.getBodyHTML());
+    }
 }
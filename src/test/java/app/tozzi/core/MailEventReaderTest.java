@@ -0,0 +1,154 @@
+package app.tozzi.core;
+
+import app.tozzi.model.MailEvent;
+import app.tozzi.model.MailEventType;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MailEventReaderTest {
+
+    private static final String SAMPLE_MAIL = """
+            From: sender@test.it
+            To: rec@test.it
+            Subject: Sample
+            Content-Type: multipart/mixed; boundary="b1"
+
+            preamble
+            --b1
+            Content-Type: text/plain; charset="UTF-8"
+            Content-Transfer-Encoding: quoted-printable
+
+            Sample=20Content=
+             soft
+            --b1
+            Content-Type: application/octet-stream; name="sample.bin"
+            Content-Disposition: attachment; filename="sample.bin"
+            Content-Transfer-Encoding: base64
+
+            U2FtcGxlIEF0dGFjaG1lbnQ=
+            --b1--
+            epilogue
+            """;
+
+    @Test
+    void testEvents() throws Exception {
+        var events = new ArrayList<String>();
+        var text = new ByteArrayOutputStream();
+        var attachment = new ByteArrayOutputStream();
+
+        try (var reader = new MailEventReader(new ByteArrayInputStream(SAMPLE_MAIL.getBytes(StandardCharsets.US_ASCII)))) {
+            String current = null;
+
+            while (reader.hasNext()) {
+                var event = reader.next();
+
+                if (event.getType() != MailEventType.HEADER && event.getType() != MailEventType.BODY_CHUNK) {
+                    events.add(event.getType() + ":" + event.getDepth());
+                }
+
+                if (event.getType() == MailEventType.START_PART) {
+                    current = event.getContentType();
+                }
+
+                if (event.getType() == MailEventType.BODY_CHUNK) {
+                    write("text/plain".equals(current) ? text : attachment, event);
+                }
+            }
+        }
+
+        assertEquals(List.of("START_MESSAGE:0", "START_PART:1", "END_PART:1", "START_PART:1", "END_PART:1", "END_MESSAGE:0"), events);
+        assertEquals("Sample Content soft", text.toString(StandardCharsets.UTF_8));
+        assertEquals("Sample Attachment", attachment.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testLongQuotedPrintableSpaces() throws Exception {
+        var spaces = " ".repeat(3 * 8192);
+        var eml = "Content-Type: text/plain\r\nContent-Transfer-Encoding: quoted-printable\r\n\r\n" + spaces + "x".repeat(8192) + "\r\nend\r\n";
+        var text = new ByteArrayOutputStream();
+
+        try (var reader = new MailEventReader(new ByteArrayInputStream(eml.getBytes(StandardCharsets.US_ASCII)))) {
+            reader.forEachRemaining(event -> {
+                if (event.getType() == MailEventType.BODY_CHUNK) {
+                    write(text, event);
+                }
+            });
+        }
+
+        assertEquals(spaces + "x".repeat(8192) + "\r\nend", text.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void testHeaders() throws Exception {
+        try (var reader = new MailEventReader(getClass().getClassLoader().getResourceAsStream("Test - Simple Mail.eml"))) {
+            assertEquals(MailEventType.START_MESSAGE, reader.next().getType());
+            var subject = false;
+
+            while (reader.hasNext()) {
+                var event = reader.next();
+
+                if (event.getType() == MailEventType.HEADER && "Subject".equalsIgnoreCase(event.getHeaderName())) {
+                    subject = true;
+                    break;
+                }
+            }
+
+            assertTrue(subject);
+        }
+    }
+
+    @Test
+    void testSkipPart() throws Exception {
+        var types = new ArrayList<MailEventType>();
+
+        try (var reader = new MailEventReader(new ByteArrayInputStream(SAMPLE_MAIL.getBytes(StandardCharsets.US_ASCII)))) {
+
+            while (reader.hasNext()) {
+                var event = reader.next();
+                types.add(event.getType());
+
+                if (event.getType() == MailEventType.START_PART) {
+                    reader.skipPart();
+                }
+            }
+        }
+
+        assertFalse(types.contains(MailEventType.BODY_CHUNK));
+        assertEquals(2, types.stream().filter(MailEventType.END_PART::equals).count());
+        assertEquals(MailEventType.END_MESSAGE, types.get(types.size() - 1));
+    }
+
+    @Test
+    void testPECMarkers() throws Exception {
+        var types = new ArrayList<MailEventType>();
+
+        try (var reader = new MailEventReader(getClass().getClassLoader().getResourceAsStream("accettazione.eml"))) {
+
+            while (reader.hasNext()) {
+                var event = reader.next();
+                types.add(event.getType());
+
+                if (event.getType() == MailEventType.PEC_DATICERT) {
+                    assertEquals("daticert.xml", event.getFileName());
+                }
+            }
+        }
+
+        assertTrue(types.contains(MailEventType.PEC_DATICERT));
+        assertFalse(types.contains(MailEventType.PEC_POSTACERT));
+    }
+
+    private static void write(ByteArrayOutputStream out, MailEvent event) {
+        var chunk = event.getChunk();
+        var bytes = new byte[chunk.remaining()];
+        chunk.get(bytes);
+        out.write(bytes, 0, bytes.length);
+    }
+}
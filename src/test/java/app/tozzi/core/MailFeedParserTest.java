@@ -0,0 +1,108 @@
+package app.tozzi.core;
+
+import app.tozzi.model.MailEventType;
+import app.tozzi.model.ParsedEntityType;
+import app.tozzi.model.exception.MailParserException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MailFeedParserTest {
+
+    @Test
+    void testFeed() throws Exception {
+        byte[] eml;
+        try (var inputStream = getClass().getClassLoader().getResourceAsStream("accettazione.eml")) {
+            eml = inputStream.readAllBytes();
+        }
+
+        var expected = new ArrayList<String>();
+        try (var reader = new MailEventReader(getClass().getClassLoader().getResourceAsStream("accettazione.eml"))) {
+            reader.forEachRemaining(e -> expected.add(e.getType() + ":" + e.getEntityId()));
+        }
+
+        var parser = new MailFeedParser();
+        var events = new ArrayList<String>();
+        var classifiedAt = -1;
+        var chunk = ByteBuffer.allocateDirect(61);
+
+        for (var offset = 0; offset < eml.length; offset += chunk.capacity()) {
+            chunk.clear();
+            chunk.put(eml, offset, Math.min(chunk.capacity(), eml.length - offset)).flip();
+            parser.feed(chunk);
+            assertFalse(chunk.hasRemaining());
+
+            for (var event = parser.poll(); event != null; event = parser.poll()) {
+                events.add(event.getType() + ":" + event.getEntityId());
+            }
+
+            if (classifiedAt < 0 && parser.getClassification() != null) {
+                classifiedAt = offset;
+            }
+        }
+
+        assertFalse(parser.isDone());
+        parser.finish();
+        for (var event = parser.poll(); event != null; event = parser.poll()) {
+            events.add(event.getType() + ":" + event.getEntityId());
+        }
+
+        assertTrue(parser.isDone());
+        assertEquals(expected, events);
+        assertTrue(classifiedAt >= 0 && classifiedAt < eml.length / 2);
+        assertEquals(ParsedEntityType.PEC_RECEIPT, parser.getClassification().getType());
+        assertThrows(MailParserException.class, () -> parser.feed(ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    void testLongQuotedPrintableSpaces() {
+        var spaces = " ".repeat(3 * 8192);
+        var parser = new MailFeedParser();
+        parser.feed(ByteBuffer.wrap(("Content-Type: text/plain\r\nContent-Transfer-Encoding: quoted-printable\r\n\r\n" + spaces + "x".repeat(8192) + "\r\nend\r\n").getBytes(StandardCharsets.US_ASCII)));
+        parser.finish();
+
+        var text = new StringBuilder();
+        for (var event = parser.poll(); event != null; event = parser.poll()) {
+
+            if (event.getType() == MailEventType.BODY_CHUNK) {
+                text.append(StandardCharsets.US_ASCII.decode(event.getChunk()));
+            }
+        }
+
+        assertEquals(spaces + "x".repeat(8192) + "\r\nend", text.toString());
+    }
+
+    @Test
+    void testSkipPart() {
+        var parser = new MailFeedParser();
+        parser.feed(ByteBuffer.wrap("""
+                Content-Type: multipart/mixed; boundary="b1"
+
+                --b1
+                Content-Type: text/plain
+
+                skipped
+                --b1--
+                """.getBytes()));
+        parser.finish();
+
+        var chunks = 0;
+        for (var event = parser.poll(); event != null; event = parser.poll()) {
+
+            if (event.getType() == MailEventType.START_PART) {
+                parser.skipPart();
+            }
+
+            if (event.getType() == MailEventType.BODY_CHUNK) {
+                chunks++;
+            }
+        }
+
+        assertEquals(0, chunks);
+        assertEquals(ParsedEntityType.MAIL, parser.getClassification().getType());
+    }
+}
@@ -0,0 +1,48 @@
+package app.tozzi.core;
+
+import jakarta.mail.Session;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParserContextTest {
+
+    @Test
+    void testSession() {
+        var properties = new Properties();
+        properties.setProperty("mail.mime.address.strict", "false");
+        var context = new ParserContext(properties);
+        assertSame(context.getSession(), context.getSession());
+        assertNotSame(Session.getDefaultInstance(System.getProperties()), context.getSession());
+        assertEquals("false", context.getSession().getProperty("mail.mime.address.strict"));
+    }
+
+    @Test
+    void testReuse() throws Exception {
+        var context = new ParserContext(null);
+        assertSame(context.getDocumentBuilder(), context.getDocumentBuilder());
+        assertSame(context.compile("/postacert/dati/msgid"), context.compile("/postacert/dati/msgid"));
+        var buffer = context.getScratchBuffer();
+        buffer.put((byte) 1);
+        assertSame(buffer, context.getScratchBuffer());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void testDecoders() {
+        var context = new ParserContext(null);
+        var decoder = context.getDecoder(StandardCharsets.UTF_8);
+        assertSame(decoder, context.getDecoder(StandardCharsets.UTF_8));
+        assertNotSame(decoder, context.getDecoder(StandardCharsets.ISO_8859_1));
+        assertEquals(CodingErrorAction.REPLACE, decoder.malformedInputAction());
+
+        var chars = context.getCharBuffer();
+        chars.put('a');
+        assertSame(chars, context.getCharBuffer());
+        assertEquals(0, chars.position());
+    }
+}
@@ -0,0 +1,83 @@
+package app.tozzi.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferPoolTest {
+
+    @Test
+    void testAcquireRelease() {
+        var pool = new BufferPool(1, 1);
+
+        var buffer = pool.acquire(IOUtils.BUFFER_SIZE, true);
+        assertTrue(buffer.isDirect());
+        assertEquals(IOUtils.BUFFER_SIZE, buffer.capacity());
+        assertEquals(1, pool.getMisses());
+        assertEquals(1, pool.getOutstanding());
+
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        assertEquals(0, pool.getOutstanding());
+
+        var again = pool.acquire(IOUtils.BUFFER_SIZE - 1, true);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(again.capacity(), again.limit());
+        assertEquals(1, pool.getHits());
+
+        var heap = pool.acquire(100, false);
+        assertFalse(heap.isDirect());
+        assertTrue(heap.hasArray());
+        assertEquals(BufferPool.MIN_SIZE, heap.capacity());
+        assertNotSame(again, heap);
+
+        pool.release(again);
+        pool.release(heap);
+    }
+
+    @Test
+    void testOversized() {
+        var pool = new BufferPool(1, 1);
+        var buffer = pool.acquire(BufferPool.MAX_SIZE + 1, false);
+        assertEquals(BufferPool.MAX_SIZE + 1, buffer.capacity());
+        pool.release(buffer);
+
+        assertNotSame(buffer, pool.acquire(BufferPool.MAX_SIZE + 1, false));
+        assertEquals(2, pool.getMisses());
+    }
+
+    @Test
+    void testSharedAcrossThreads() throws Exception {
+        var pool = new BufferPool(1, 0);
+        var buffer = pool.acquire(BufferPool.MIN_SIZE, false);
+        pool.release(buffer);
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            assertSame(buffer, executor.submit(() -> pool.acquire(BufferPool.MIN_SIZE, false)).get());
+
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getOutstanding());
+    }
+
+    @Test
+    void testReleasedByShortLivedThread() throws Exception {
+        var pool = new BufferPool(1, 1);
+        var buffer = pool.acquire(BufferPool.MIN_SIZE, false);
+
+        // released to the shared queue, not to the cache of a thread that is going away
+        var thread = new Thread(() -> pool.release(buffer));
+        thread.start();
+        thread.join();
+
+        assertSame(buffer, pool.acquire(BufferPool.MIN_SIZE, false));
+        assertEquals(1, pool.getHits());
+    }
+}
@@ -10,9 +10,14 @@ import org.mockito.MockedStatic;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class IOUtilsTest {
@@ -108,4 +113,26 @@ public class IOUtilsTest {
             assertEquals(SAMPLE_CONTENT, new String(dataSource.getInputStream().readAllBytes()));
         }
     }
+
+    @Test
+    void testReadLines() throws Exception {
+        var lines = new ArrayList<String>();
+        var content = "first\r\nsecond\nthird\rfourth\r\n\r\n" + "x".repeat(40_000) + "\r\nlast";
+
+        try (var inputStream = new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII))) {
+            IOUtils.readLines(inputStream, StandardCharsets.US_ASCII, lines::add);
+        }
+
+        assertEquals(List.of("first", "second", "third", "fourth", "", "x".repeat(40_000), "last"), lines);
+    }
+
+    @Test
+    void testSizeExactness() {
+        assertTrue(IOUtils.isDecodedSizeExact(" 7bit "));
+        assertTrue(IOUtils.isDecodedSizeExact("Base64 "));
+        assertTrue(IOUtils.isDecodedSizeExact(null));
+        assertFalse(IOUtils.isDecodedSizeExact("quoted-printable"));
+        assertTrue(IOUtils.isEstimatedSizeExact(" 7bit "));
+        assertFalse(IOUtils.isEstimatedSizeExact("base64"));
+    }
 }
@@ -0,0 +1,47 @@
+package app.tozzi.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharedByteBufferInputStreamTest {
+
+    private static final String SAMPLE_CONTENT = "Sample Content";
+
+    @Test
+    void testRead() throws Exception {
+        var is = new SharedByteBufferInputStream(ByteBuffer.wrap(SAMPLE_CONTENT.getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(SAMPLE_CONTENT.length(), is.available());
+        assertEquals('S', is.read());
+        assertEquals(1, is.getPosition());
+        assertEquals("ample Content", new String(is.readAllBytes(), StandardCharsets.US_ASCII));
+        assertEquals(-1, is.read());
+    }
+
+    @Test
+    void testNewStream() throws Exception {
+        var direct = ByteBuffer.allocateDirect(SAMPLE_CONTENT.length());
+        direct.put(SAMPLE_CONTENT.getBytes(StandardCharsets.US_ASCII)).flip();
+        var is = new SharedByteBufferInputStream(direct);
+        var slice = (SharedByteBufferInputStream) is.newStream(7, -1);
+        assertEquals("Content", new String(slice.readAllBytes(), StandardCharsets.US_ASCII));
+        var nested = slice.newStream(1, 4);
+        assertEquals("ont", new String(nested.readAllBytes(), StandardCharsets.US_ASCII));
+        assertEquals(0, is.getPosition());
+    }
+
+    @Test
+    void testMarkReset() throws Exception {
+        var is = new SharedByteBufferInputStream(ByteBuffer.wrap(SAMPLE_CONTENT.getBytes(StandardCharsets.US_ASCII)));
+        assertTrue(is.markSupported());
+        assertEquals(7, is.skip(7));
+        is.mark(100);
+        assertEquals('C', is.read());
+        is.reset();
+        assertEquals(7, is.getPosition());
+        assertEquals('C', is.read());
+    }
+}
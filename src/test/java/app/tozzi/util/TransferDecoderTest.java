@@ -0,0 +1,118 @@
+package app.tozzi.util;
+
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeUtility;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransferDecoderTest {
+
+    @Test
+    void testBase64() throws Exception {
+        var random = new Random(42);
+
+        for (var length : new int[]{0, 1, 2, 3, 4, 57, 58, 1000, 100_000}) {
+            var content = new byte[length];
+            random.nextBytes(content);
+            var encoded = Base64.getMimeEncoder().encode(content);
+
+            assertArrayEquals(content, decode("base64", encoded, encoded.length));
+            assertArrayEquals(content, decode("base64", encoded, 1));
+            assertArrayEquals(content, decode("base64", encoded, 5));
+            assertArrayEquals(content, decodePart("base64", encoded));
+        }
+
+        // LF line breaks, garbage after the padding
+        var encoded = "U2FtcGxl\nIGNvbnRlbnQ=\n\nignored".getBytes(StandardCharsets.US_ASCII);
+        assertEquals("Sample content", new String(decode("base64", encoded, 3), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void testQuotedPrintable() throws Exception {
+        var samples = new String[]{
+                "",
+                "plain text",
+                "caf=C3=A8 =3D equal\r\nnext line\r\n",
+                "soft=\r\nbreak and soft=\rbreak",
+                "lf soft=\nbreak",
+                "trailing spaces   \r\ndropped, tabs\t\r\nkept, inner   spaces kept   ",
+                "lower case =c3=a8 and invalid =ZZ =4 =",
+                "= in the middle and at the end =",
+                "a".repeat(20_000) + "=3D" + " ".repeat(40) + "\r\n" + "b".repeat(20_000) + " ".repeat(40) + "c"
+        };
+
+        for (var sample : samples) {
+            var encoded = sample.getBytes(StandardCharsets.US_ASCII);
+            var expected = MimeUtility.decode(new ByteArrayInputStream(encoded), "quoted-printable").readAllBytes();
+
+            assertArrayEquals(expected, decode("quoted-printable", encoded, encoded.length), sample);
+            assertArrayEquals(expected, decode("quoted-printable", encoded, 1), sample);
+            assertArrayEquals(expected, decode("quoted-printable", encoded, 2), sample);
+            assertArrayEquals(expected, decodePart("quoted-printable", encoded), sample);
+        }
+    }
+
+    @Test
+    void testReuse() {
+        var decoder = TransferDecoder.of("base64");
+
+        for (var content : new String[]{"U2FtcGxl", "Y29udGVudA=="}) {
+            var encoded = content.getBytes(StandardCharsets.US_ASCII);
+            var out = new byte[decoder.maxDecodedLength(encoded.length)];
+            var length = decoder.decode(encoded, 0, encoded.length, out, 0);
+            length = decoder.finish(out, length);
+            assertEquals(new String(Base64.getDecoder().decode(content), StandardCharsets.US_ASCII), new String(out, 0, length, StandardCharsets.US_ASCII));
+        }
+
+        var encoded = "QQ==".getBytes(StandardCharsets.US_ASCII);
+        var out = new byte[decoder.maxDecodedLength(encoded.length)];
+        assertEquals(1, decoder.finish(out, decoder.decode(encoded, 0, encoded.length, out, 0)));
+    }
+
+    @Test
+    void testOf() throws Exception {
+        assertNotNull(TransferDecoder.of(" BASE64 "));
+        assertNotNull(TransferDecoder.of("Quoted-Printable"));
+        assertNull(TransferDecoder.of("7bit"));
+        assertNull(TransferDecoder.of("x-uuencode"));
+        assertNull(TransferDecoder.of(null));
+
+        // other encodings are decoded by the part
+        var encoded = "plain content".getBytes(StandardCharsets.US_ASCII);
+        assertArrayEquals(encoded, decodePart("8bit", encoded));
+    }
+
+    private static byte[] decode(String encoding, byte[] encoded, int chunkSize) {
+        var decoder = TransferDecoder.of(encoding);
+        var result = new ByteArrayOutputStream();
+
+        for (var from = 0; from < encoded.length; from += chunkSize) {
+            var to = Math.min(encoded.length, from + chunkSize);
+            var out = new byte[decoder.maxDecodedLength(to - from)];
+            result.write(out, 0, decoder.decode(encoded, from, to, out, 0));
+        }
+
+        var out = new byte[decoder.maxDecodedLength(0)];
+        result.write(out, 0, decoder.finish(out, 0));
+        return result.toByteArray();
+    }
+
+    private static byte[] decodePart(String encoding, byte[] encoded) throws Exception {
+        var headers = new InternetHeaders();
+        headers.setHeader("Content-Type", "application/octet-stream");
+        headers.setHeader("Content-Transfer-Encoding", encoding);
+
+        try (var inputStream = IOUtils.getDecodedInputStream(new MimeBodyPart(headers, Arrays.copyOf(encoded, encoded.length)))) {
+            return inputStream.readAllBytes();
+        }
+    }
+}